@@ -0,0 +1,99 @@
+/*
+ * Copyright 2019 the original author or authors.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.gemfire.server.expiry;
+
+import java.util.Properties;
+
+import org.apache.geode.cache.Cache;
+import org.apache.geode.cache.CustomExpiry;
+import org.apache.geode.cache.Declarable;
+import org.apache.geode.cache.ExpirationAction;
+import org.apache.geode.cache.ExpirationAttributes;
+import org.apache.geode.cache.Region;
+import org.apache.geode.pdx.PdxInstance;
+
+/**
+ * Expires each entry at the time held by a field of its value, in milliseconds since the epoch, as stamped by the
+ * sink's {@code ttl-expression}. Storing the expiration time rather than the time to live keeps the expiration time
+ * of an entry unchanged when it is computed again, for instance by a new primary after a failover. Entries whose value
+ * is not a {@link PdxInstance} with a numeric expiration field get the region's default entry time to live.
+ *
+ * Configure it as the custom entry time to live of a region with statistics enabled, in the server's cache
+ * configuration or with {@code gfsh create region --entry-time-to-live-custom-expiry}. The field name (default
+ * {@code expiresAt}) and the expiration action (default {@code destroy}) may be set with the {@code field-name} and
+ * {@code action} parameters.
+ */
+public class ExpirationTimeCustomExpiry implements CustomExpiry<Object, Object>, Declarable {
+
+	public static final String DEFAULT_FIELD_NAME = "expiresAt";
+
+	private static final ExpirationAction[] ACTIONS = { ExpirationAction.DESTROY, ExpirationAction.INVALIDATE,
+			ExpirationAction.LOCAL_DESTROY, ExpirationAction.LOCAL_INVALIDATE };
+
+	private String fieldName = DEFAULT_FIELD_NAME;
+
+	private ExpirationAction action = ExpirationAction.DESTROY;
+
+	public ExpirationTimeCustomExpiry() {
+	}
+
+	/**
+	 * @param fieldName the name of the field holding the expiration time
+	 * @param action the action taken when an entry expires
+	 */
+	public ExpirationTimeCustomExpiry(String fieldName, ExpirationAction action) {
+		this.fieldName = fieldName;
+		this.action = action;
+	}
+
+	@Override
+	public void initialize(Cache cache, Properties properties) {
+		this.fieldName = properties.getProperty("field-name", this.fieldName);
+		String action = properties.getProperty("action");
+		if (action != null) {
+			this.action = action(action);
+		}
+	}
+
+	@Override
+	public ExpirationAttributes getExpiry(Region.Entry<Object, Object> entry) {
+		Object value = entry.getValue();
+		if (!(value instanceof PdxInstance) || !((PdxInstance) value).hasField(this.fieldName)) {
+			return null;
+		}
+		Object expirationTime = ((PdxInstance) value).getField(this.fieldName);
+		if (!(expirationTime instanceof Number)) {
+			return null;
+		}
+		long remaining = ((Number) expirationTime).longValue() - System.currentTimeMillis();
+		// a timeout of 0 would never expire, so entries past their expiration time expire within a second
+		long seconds = Math.max(1, (remaining + 999) / 1000);
+		return new ExpirationAttributes((int) Math.min(Integer.MAX_VALUE, seconds), this.action);
+	}
+
+	@Override
+	public void close() {
+	}
+
+	private static ExpirationAction action(String action) {
+		for (ExpirationAction candidate : ACTIONS) {
+			if (candidate.toString().equalsIgnoreCase(action.replace('-', '_'))) {
+				return candidate;
+			}
+		}
+		throw new IllegalArgumentException("Unknown expiration action '" + action + "'");
+	}
+}
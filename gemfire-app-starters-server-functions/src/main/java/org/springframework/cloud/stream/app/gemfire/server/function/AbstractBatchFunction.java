@@ -0,0 +1,87 @@
+/*
+ * Copyright 2019 the original author or authors.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.gemfire.server.function;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.geode.cache.Region;
+import org.apache.geode.cache.execute.Function;
+import org.apache.geode.cache.execute.FunctionContext;
+import org.apache.geode.cache.execute.FunctionException;
+import org.apache.geode.cache.execute.RegionFunctionContext;
+
+/**
+ * Base class for functions that apply a batch of entries, passed as the function arguments, to the region the
+ * function is executed on. The sink executes them with {@code FunctionService.onRegion(region).withFilter(keys)};
+ * because the functions are optimized for write, Geode routes them to the members hosting the primary buckets of
+ * the keys and each member applies only the entries in its filter. The sink sends each member only its own entries,
+ * using {@link LocalKeysFunction} to find them, but a bucket may still move between the two executions. Each member
+ * returns the number of entries it applied.
+ */
+public abstract class AbstractBatchFunction implements Function<Map<Object, Object>> {
+
+	@Override
+	public void execute(FunctionContext<Map<Object, Object>> context) {
+		if (!(context instanceof RegionFunctionContext)) {
+			throw new FunctionException(getId() + " must be executed on a region");
+		}
+		RegionFunctionContext regionContext = (RegionFunctionContext) context;
+		Map<Object, Object> entries = localEntries(context.getArguments(), regionContext.getFilter());
+		Region<Object, Object> region = regionContext.getDataSet();
+		apply(region, entries);
+		context.getResultSender().lastResult(entries.size());
+	}
+
+	/**
+	 * Apply the entries hosted by this member to the region.
+	 * @param region the region
+	 * @param entries the entries
+	 */
+	protected abstract void apply(Region<Object, Object> region, Map<Object, Object> entries);
+
+	private Map<Object, Object> localEntries(Map<Object, Object> entries, Set<?> filter) {
+		if (entries == null) {
+			throw new FunctionException(getId() + " requires a Map of entries as its arguments");
+		}
+		if (filter == null || filter.isEmpty() || filter.size() >= entries.size()) {
+			return entries;
+		}
+		Map<Object, Object> localEntries = new HashMap<>(filter.size() * 4 / 3 + 1);
+		for (Object key : filter) {
+			if (entries.containsKey(key)) {
+				localEntries.put(key, entries.get(key));
+			}
+		}
+		return localEntries;
+	}
+
+	@Override
+	public boolean hasResult() {
+		return true;
+	}
+
+	@Override
+	public boolean optimizeForWrite() {
+		return true;
+	}
+
+	@Override
+	public boolean isHA() {
+		return true;
+	}
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2019 the original author or authors.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.gemfire.server.function;
+
+import java.util.Map;
+
+import org.apache.geode.cache.Region;
+
+/**
+ * Writes a batch of entries to the members that host them with a local {@link Region#putAll(Map)}.
+ *
+ * Deploy the jar to the servers with {@code gfsh deploy}, which registers the function, or register it in the
+ * server's cache configuration.
+ */
+public class BulkPutFunction extends AbstractBatchFunction {
+
+	public static final String ID = "gemfire-sink-bulk-put";
+
+	@Override
+	protected void apply(Region<Object, Object> region, Map<Object, Object> entries) {
+		region.putAll(entries);
+	}
+
+	@Override
+	public String getId() {
+		return ID;
+	}
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright 2019 the original author or authors.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.gemfire.server.function;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+import org.apache.geode.cache.Region;
+import org.apache.geode.cache.execute.FunctionException;
+import org.apache.geode.pdx.JSONFormatter;
+import org.apache.geode.pdx.PdxInstance;
+
+import org.springframework.cloud.stream.app.gemfire.JsonPdxInstances;
+
+/**
+ * Applies a batch of JSON merge patches (RFC 7386), each a JSON object sent as a String or as UTF-8 bytes, to the
+ * JSON documents stored under their keys. Patch fields that are {@code null} remove the field from the document,
+ * nested objects are merged recursively and any other value replaces the current value. A patch for a key that has
+ * no value creates the document from the patch. Only the patches cross the wire; the documents are read and rewritten
+ * on the members that host them.
+ *
+ * The patches are parsed here rather than sent as {@link PdxInstance}s, so that they do not register a PDX type for
+ * each patch shape; only the merged documents are PDX instances. Each merged document is written as JSON, in the
+ * field order of the current document followed by any new fields, and read back with {@link JSONFormatter}, so it
+ * shares PDX types with the documents written by the sink in JSON mode. Each document is replaced only if it has not
+ * changed since it was read, and the merge is retried otherwise.
+ */
+public class JsonMergePatchFunction extends AbstractBatchFunction {
+
+	public static final String ID = "gemfire-sink-json-merge-patch";
+
+	private final JsonFactory jsonFactory = new JsonFactory()
+			.enable(JsonParser.Feature.ALLOW_SINGLE_QUOTES)
+			.enable(JsonParser.Feature.ALLOW_UNQUOTED_FIELD_NAMES)
+			.enable(JsonParser.Feature.ALLOW_COMMENTS);
+
+	@Override
+	protected void apply(Region<Object, Object> region, Map<Object, Object> entries) {
+		for (Map.Entry<Object, Object> entry : entries.entrySet()) {
+			Map<String, Object> patch;
+			try {
+				patch = parse(entry.getValue());
+			}
+			catch (IOException e) {
+				throw new FunctionException("The patch for key '" + entry.getKey() + "' is not a JSON object", e);
+			}
+			if (patch == null) {
+				throw new FunctionException("The patch for key '" + entry.getKey() + "' is not a JSON String or "
+						+ "byte array");
+			}
+			apply(region, entry.getKey(), patch);
+		}
+	}
+
+	private void apply(Region<Object, Object> region, Object key, Map<String, Object> patch) {
+		while (true) {
+			Object current = region.get(key);
+			if (current != null && !(current instanceof PdxInstance)) {
+				throw new FunctionException("The value for key '" + key + "' is not a JSON PdxInstance");
+			}
+			PdxInstance merged;
+			try {
+				merged = merge((PdxInstance) current, patch);
+			}
+			catch (IOException e) {
+				throw new FunctionException("Failed to merge the patch for key '" + key + "'", e);
+			}
+			if (current == null ? region.putIfAbsent(key, merged) == null : region.replace(key, current, merged)) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Parse a patch into a map of its fields, whose nested objects are maps and arrays are lists. JSON nulls are
+	 * mapped to {@code null}.
+	 * @return the fields, or null if the patch is neither a String nor a byte array
+	 */
+	private Map<String, Object> parse(Object patch) throws IOException {
+		JsonParser parser;
+		if (patch instanceof String) {
+			parser = this.jsonFactory.createParser((String) patch);
+		}
+		else if (patch instanceof byte[]) {
+			parser = this.jsonFactory.createParser((byte[]) patch);
+		}
+		else {
+			return null;
+		}
+		try {
+			if (parser.nextToken() != JsonToken.START_OBJECT) {
+				throw new JsonParseException(parser, "Expected a JSON object");
+			}
+			Map<String, Object> fields = readObject(parser);
+			if (parser.nextToken() != null) {
+				throw new JsonParseException(parser, "Unexpected content after the JSON object");
+			}
+			return fields;
+		}
+		finally {
+			parser.close();
+		}
+	}
+
+	private static Map<String, Object> readObject(JsonParser parser) throws IOException {
+		Map<String, Object> fields = new LinkedHashMap<>();
+		JsonToken token;
+		while ((token = parser.nextToken()) != JsonToken.END_OBJECT) {
+			if (token != JsonToken.FIELD_NAME) {
+				throw new JsonParseException(parser, "Expected a field name but found " + token);
+			}
+			String fieldName = parser.getCurrentName();
+			if (fields.containsKey(fieldName)) {
+				throw new JsonParseException(parser, "Duplicate key \"" + fieldName + "\"");
+			}
+			fields.put(fieldName, readValue(parser.nextToken(), parser));
+		}
+		return fields;
+	}
+
+	private static List<Object> readArray(JsonParser parser) throws IOException {
+		List<Object> list = new ArrayList<>();
+		JsonToken token;
+		while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+			list.add(readValue(token, parser));
+		}
+		return list;
+	}
+
+	private static Object readValue(JsonToken token, JsonParser parser) throws IOException {
+		if (token == null) {
+			throw new JsonParseException(parser, "Unexpected end of input");
+		}
+		switch (token) {
+			case START_OBJECT:
+				return readObject(parser);
+			case START_ARRAY:
+				return readArray(parser);
+			case VALUE_STRING:
+				return parser.getText();
+			case VALUE_NUMBER_INT:
+			case VALUE_NUMBER_FLOAT:
+				return JsonPdxInstances.readNumber(parser);
+			case VALUE_TRUE:
+				return Boolean.TRUE;
+			case VALUE_FALSE:
+				return Boolean.FALSE;
+			case VALUE_NULL:
+				return null;
+			default:
+				throw new JsonParseException(parser, "Unexpected token " + token);
+		}
+	}
+
+	private PdxInstance merge(PdxInstance target, Map<String, Object> patch) throws IOException {
+		ByteArrayBuilder json = new ByteArrayBuilder();
+		try (JsonGenerator generator = this.jsonFactory.createGenerator(json, JsonEncoding.UTF8)) {
+			writeMerged(target, patch, generator);
+		}
+		return JSONFormatter.fromJSON(json.toByteArray());
+	}
+
+	private static void writeMerged(PdxInstance target, Map<String, Object> patch, JsonGenerator generator)
+			throws IOException {
+		generator.writeStartObject();
+		if (target != null) {
+			for (String fieldName : target.getFieldNames()) {
+				if (!patch.containsKey(fieldName)) {
+					generator.writeFieldName(fieldName);
+					JsonPdxInstances.writeValue(target.getField(fieldName), generator);
+				}
+				else if (patch.get(fieldName) != null) {
+					generator.writeFieldName(fieldName);
+					writePatched(target.getField(fieldName), patch.get(fieldName), generator);
+				}
+			}
+		}
+		for (Map.Entry<String, Object> field : patch.entrySet()) {
+			if (field.getValue() != null && (target == null || !target.hasField(field.getKey()))) {
+				generator.writeFieldName(field.getKey());
+				writePatched(null, field.getValue(), generator);
+			}
+		}
+		generator.writeEndObject();
+	}
+
+	/**
+	 * Write a patch value merged into the current value. Objects are merged; any other value, such as an array,
+	 * replaces the current value as a whole, and unlike a merge keeps its nulls.
+	 */
+	@SuppressWarnings("unchecked")
+	private static void writePatched(Object value, Object patchValue, JsonGenerator generator) throws IOException {
+		if (patchValue instanceof Map) {
+			writeMerged(value instanceof PdxInstance ? (PdxInstance) value : null, (Map<String, Object>) patchValue,
+					generator);
+		}
+		else {
+			JsonPdxInstances.writeValue(patchValue, generator);
+		}
+	}
+
+	@Override
+	public String getId() {
+		return ID;
+	}
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2019 the original author or authors.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.gemfire.server.function;
+
+import java.util.ArrayList;
+import java.util.Set;
+
+import org.apache.geode.cache.execute.Function;
+import org.apache.geode.cache.execute.FunctionContext;
+import org.apache.geode.cache.execute.FunctionException;
+import org.apache.geode.cache.execute.RegionFunctionContext;
+
+/**
+ * Returns the keys of its filter that the member it runs on hosts. Executed with
+ * {@code FunctionService.onRegion(region).withFilter(keys)}, it is routed like the {@link AbstractBatchFunction}s,
+ * to the members hosting the primary buckets of the keys, so each result is the group of keys that one member
+ * applies. The sink uses it to send each member only the entries of its own keys.
+ */
+public class LocalKeysFunction implements Function<Object> {
+
+	public static final String ID = "gemfire-sink-local-keys";
+
+	@Override
+	public void execute(FunctionContext<Object> context) {
+		if (!(context instanceof RegionFunctionContext)) {
+			throw new FunctionException(getId() + " must be executed on a region");
+		}
+		Set<?> filter = ((RegionFunctionContext) context).getFilter();
+		context.getResultSender().lastResult(filter == null ? new ArrayList<>() : new ArrayList<>(filter));
+	}
+
+	@Override
+	public String getId() {
+		return ID;
+	}
+
+	@Override
+	public boolean hasResult() {
+		return true;
+	}
+
+	@Override
+	public boolean optimizeForWrite() {
+		return true;
+	}
+
+	@Override
+	public boolean isHA() {
+		return true;
+	}
+}
@@ -18,6 +18,7 @@ package org.springframework.cloud.stream.app.test.gemfire.process;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 
@@ -31,6 +32,15 @@ import org.springframework.cloud.stream.app.test.gemfire.support.ThreadUtils;
 public class GeodeServerLauncherHelper {
 
 	public static ProcessWrapper startGeode(String serverName, String gemfireServerXmlFileName) throws IOException {
+		return startGeode(serverName, gemfireServerXmlFileName, new String[0]);
+	}
+
+	/**
+	 * Start a server with additional JVM options, such as {@code -Dgemfire.locators=localhost[10334]} to have several
+	 * servers join the same cluster.
+	 */
+	public static ProcessWrapper startGeode(String serverName, String gemfireServerXmlFileName, String... jvmOptions)
+			throws IOException {
 
 		File serverWorkingDirectory = new File(FileSystemUtils.WORKING_DIRECTORY, serverName.toLowerCase());
 
@@ -41,6 +51,7 @@ public class GeodeServerLauncherHelper {
 		List<String> arguments = new ArrayList<>();
 
 		arguments.add("-Dgemfire.name=" + serverName);
+		arguments.addAll(Arrays.asList(jvmOptions));
 		arguments.add(gemfireServerXmlFileName);
 
 		ProcessWrapper serverProcess = ProcessExecutor.launch(serverWorkingDirectory, ServerProcess.class,
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2019 the original author or authors.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.gemfire;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Exception;
+import net.jpountz.lz4.LZ4Factory;
+
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.converter.MessageConversionException;
+import org.springframework.util.MimeTypeUtils;
+
+/**
+ * A region value compressed with the LZ4 block codec. The sink stores large values as envelopes and the sources
+ * recognize them and emit the original value. An envelope is a {@code byte[]} holding a 4 byte magic number, the kind
+ * of content, the length of the content as a big-endian int and the compressed content.
+ */
+public final class CompressionEnvelope {
+
+	/**
+	 * The kind of value held by an envelope, which decides how it is emitted once decompressed.
+	 */
+	public enum Content {
+
+		/**
+		 * A byte array, emitted as is.
+		 */
+		BYTES,
+
+		/**
+		 * A UTF-8 encoded String, emitted as a String.
+		 */
+		STRING,
+
+		/**
+		 * A UTF-8 encoded JSON document, emitted as a String or as JSON bytes, like the PdxInstance it replaces.
+		 */
+		JSON
+	}
+
+	private static final byte[] MAGIC = { (byte) 0xC7, 'L', 'Z', '4' };
+
+	private static final int HEADER_LENGTH = MAGIC.length + 1 + 4;
+
+	// an LZ4 block cannot expand to more than 255 times its size
+	private static final int MAX_RATIO = 255;
+
+	private static final LZ4Factory LZ4 = LZ4Factory.fastestInstance();
+
+	private CompressionEnvelope() {
+	}
+
+	/**
+	 * Compress a value into an envelope.
+	 * @param content the kind of value
+	 * @param value the value
+	 * @param offset the offset of the value in the array
+	 * @param length the length of the value
+	 * @return the envelope, or null if the envelope would not be smaller than the value
+	 */
+	public static byte[] wrap(Content content, byte[] value, int offset, int length) {
+		LZ4Compressor compressor = LZ4.fastCompressor();
+		int maxLength = HEADER_LENGTH + compressor.maxCompressedLength(length);
+		byte[] envelope = new byte[maxLength];
+		System.arraycopy(MAGIC, 0, envelope, 0, MAGIC.length);
+		envelope[MAGIC.length] = (byte) content.ordinal();
+		envelope[MAGIC.length + 1] = (byte) (length >>> 24);
+		envelope[MAGIC.length + 2] = (byte) (length >>> 16);
+		envelope[MAGIC.length + 3] = (byte) (length >>> 8);
+		envelope[MAGIC.length + 4] = (byte) length;
+		int envelopeLength = HEADER_LENGTH + compressor.compress(value, offset, length, envelope, HEADER_LENGTH,
+				maxLength - HEADER_LENGTH);
+		return envelopeLength < length ? Arrays.copyOf(envelope, envelopeLength) : null;
+	}
+
+	/**
+	 * @param value a region value
+	 * @return whether the value is an envelope
+	 */
+	public static boolean isEnvelope(Object value) {
+		if (!(value instanceof byte[]) || ((byte[]) value).length < HEADER_LENGTH) {
+			return false;
+		}
+		byte[] bytes = (byte[]) value;
+		for (int i = 0; i < MAGIC.length; i++) {
+			if (bytes[i] != MAGIC[i]) {
+				return false;
+			}
+		}
+		return bytes[MAGIC.length] >= 0 && bytes[MAGIC.length] < Content.values().length;
+	}
+
+	/**
+	 * @param envelope the envelope
+	 * @return the kind of value held by the envelope
+	 */
+	public static Content getContent(byte[] envelope) {
+		return Content.values()[envelope[MAGIC.length]];
+	}
+
+	/**
+	 * Decompress the value held by an envelope.
+	 * @param envelope the envelope
+	 * @return the value
+	 * @throws MessageConversionException if the envelope is corrupt
+	 */
+	public static byte[] unwrap(byte[] envelope) {
+		int length = (envelope[MAGIC.length + 1] & 0xFF) << 24 | (envelope[MAGIC.length + 2] & 0xFF) << 16
+				| (envelope[MAGIC.length + 3] & 0xFF) << 8 | (envelope[MAGIC.length + 4] & 0xFF);
+		if (length < 0 || length > (long) (envelope.length - HEADER_LENGTH) * MAX_RATIO) {
+			throw new MessageConversionException("Corrupt compressed value: invalid length " + length);
+		}
+		byte[] value = new byte[length];
+		try {
+			int decompressed = LZ4.safeDecompressor().decompress(envelope, HEADER_LENGTH,
+					envelope.length - HEADER_LENGTH, value, 0, length);
+			if (decompressed != length) {
+				throw new MessageConversionException("Corrupt compressed value: expected " + length
+						+ " bytes but found " + decompressed);
+			}
+		}
+		catch (LZ4Exception e) {
+			throw new MessageConversionException("Corrupt compressed value", e);
+		}
+		return value;
+	}
+
+	/**
+	 * Replace an envelope payload with the value it holds: a String for string content and for JSON content unless
+	 * {@code jsonBytes} is set, in which case the JSON bytes are emitted with the 'application/json' content type,
+	 * and a byte array for byte content. Other payloads are returned unchanged.
+	 * @param message the message
+	 * @param jsonBytes whether JSON documents are emitted as bytes
+	 * @return the message with the decompressed payload
+	 */
+	public static Message<?> decompress(Message<?> message, boolean jsonBytes) {
+		if (!isEnvelope(message.getPayload())) {
+			return message;
+		}
+		byte[] envelope = (byte[]) message.getPayload();
+		byte[] value = unwrap(envelope);
+		switch (getContent(envelope)) {
+			case BYTES:
+				return MessageBuilder.withPayload(value).copyHeaders(message.getHeaders()).build();
+			case JSON:
+				if (jsonBytes) {
+					return MessageBuilder.withPayload(value)
+							.copyHeaders(message.getHeaders())
+							.setHeader(MessageHeaders.CONTENT_TYPE, MimeTypeUtils.APPLICATION_JSON_VALUE)
+							.build();
+				}
+				// fall through
+			default:
+				return MessageBuilder.withPayload(new String(value, StandardCharsets.UTF_8))
+						.copyHeaders(message.getHeaders())
+						.build();
+		}
+	}
+}
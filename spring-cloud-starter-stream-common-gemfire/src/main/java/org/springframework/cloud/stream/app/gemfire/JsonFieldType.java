@@ -0,0 +1,253 @@
+/*
+ * Copyright 2019 the original author or authors.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.gemfire;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+import org.apache.geode.pdx.PdxInstanceFactory;
+
+import org.springframework.integration.transformer.MessageTransformationException;
+
+/**
+ * The PDX type of a field declared in the schema of a {@link JsonPdxInstanceReader}. A declared field is always
+ * written with its declared type, whatever the magnitude of a number, and is written with its default value (null,
+ * 0 or false) when it is absent from a document, so that all documents share one PDX type. A number that the declared
+ * type cannot hold, such as a fraction for an integral type or a value out of its range, is rejected rather than
+ * truncated.
+ */
+public enum JsonFieldType {
+
+	STRING {
+		@Override
+		Object coerce(String fieldName, Object value) {
+			if (value != null && !(value instanceof String)) {
+				throw mismatch(fieldName);
+			}
+			return value;
+		}
+
+		@Override
+		void write(PdxInstanceFactory factory, String fieldName, Object value) {
+			factory.writeString(fieldName, (String) coerce(fieldName, value));
+		}
+	},
+
+	BOOLEAN {
+		@Override
+		Object coerce(String fieldName, Object value) {
+			if (value != null && !(value instanceof Boolean)) {
+				throw mismatch(fieldName);
+			}
+			return Boolean.TRUE.equals(value);
+		}
+
+		@Override
+		void write(PdxInstanceFactory factory, String fieldName, Object value) {
+			factory.writeBoolean(fieldName, (Boolean) coerce(fieldName, value));
+		}
+	},
+
+	BYTE {
+		@Override
+		Object coerce(String fieldName, Object value) {
+			return (byte) integral(fieldName, value, Byte.MIN_VALUE, Byte.MAX_VALUE);
+		}
+
+		@Override
+		void write(PdxInstanceFactory factory, String fieldName, Object value) {
+			factory.writeByte(fieldName, (Byte) coerce(fieldName, value));
+		}
+	},
+
+	SHORT {
+		@Override
+		Object coerce(String fieldName, Object value) {
+			return (short) integral(fieldName, value, Short.MIN_VALUE, Short.MAX_VALUE);
+		}
+
+		@Override
+		void write(PdxInstanceFactory factory, String fieldName, Object value) {
+			factory.writeShort(fieldName, (Short) coerce(fieldName, value));
+		}
+	},
+
+	INT {
+		@Override
+		Object coerce(String fieldName, Object value) {
+			return (int) integral(fieldName, value, Integer.MIN_VALUE, Integer.MAX_VALUE);
+		}
+
+		@Override
+		void write(PdxInstanceFactory factory, String fieldName, Object value) {
+			factory.writeInt(fieldName, (Integer) coerce(fieldName, value));
+		}
+	},
+
+	LONG {
+		@Override
+		Object coerce(String fieldName, Object value) {
+			return integral(fieldName, value, Long.MIN_VALUE, Long.MAX_VALUE);
+		}
+
+		@Override
+		void write(PdxInstanceFactory factory, String fieldName, Object value) {
+			factory.writeLong(fieldName, (Long) coerce(fieldName, value));
+		}
+	},
+
+	FLOAT {
+		@Override
+		Object coerce(String fieldName, Object value) {
+			Number number = number(fieldName, value);
+			float floatValue = number.floatValue();
+			if (Float.isInfinite(floatValue) && !Double.isInfinite(number.doubleValue())) {
+				throw mismatch(fieldName);
+			}
+			return floatValue;
+		}
+
+		@Override
+		void write(PdxInstanceFactory factory, String fieldName, Object value) {
+			factory.writeFloat(fieldName, (Float) coerce(fieldName, value));
+		}
+	},
+
+	DOUBLE {
+		@Override
+		Object coerce(String fieldName, Object value) {
+			double doubleValue = number(fieldName, value).doubleValue();
+			if (Double.isInfinite(doubleValue)) {
+				throw mismatch(fieldName);
+			}
+			return doubleValue;
+		}
+
+		@Override
+		void write(PdxInstanceFactory factory, String fieldName, Object value) {
+			factory.writeDouble(fieldName, (Double) coerce(fieldName, value));
+		}
+	},
+
+	/**
+	 * Any JSON value, including nested objects and arrays.
+	 */
+	OBJECT {
+		@Override
+		Object coerce(String fieldName, Object value) {
+			return value;
+		}
+
+		@Override
+		void write(PdxInstanceFactory factory, String fieldName, Object value) {
+			factory.writeObject(fieldName, value);
+		}
+	};
+
+	/**
+	 * Convert a field value to the Java type of this PDX type.
+	 * @param fieldName the field name
+	 * @param value the value read from the document, or null
+	 * @return the converted value, or the default value if the value is null
+	 * @throws MessageTransformationException if the value does not have this type
+	 */
+	abstract Object coerce(String fieldName, Object value);
+
+	/**
+	 * Write a field value, or the default value if the value is null.
+	 * @param factory the factory
+	 * @param fieldName the field name
+	 * @param value the value read from the document
+	 * @throws MessageTransformationException if the value does not have this type
+	 */
+	abstract void write(PdxInstanceFactory factory, String fieldName, Object value);
+
+	/**
+	 * @param value a value read from a document
+	 * @return the type {@link org.apache.geode.pdx.JSONFormatter} gives the value
+	 */
+	static JsonFieldType of(Object value) {
+		if (value instanceof String) {
+			return STRING;
+		}
+		if (value instanceof Boolean) {
+			return BOOLEAN;
+		}
+		if (value instanceof Byte) {
+			return BYTE;
+		}
+		if (value instanceof Short) {
+			return SHORT;
+		}
+		if (value instanceof Integer) {
+			return INT;
+		}
+		if (value instanceof Long) {
+			return LONG;
+		}
+		if (value instanceof Float) {
+			return FLOAT;
+		}
+		if (value instanceof Double) {
+			return DOUBLE;
+		}
+		// null, lists, nested objects, BigInteger and BigDecimal
+		return OBJECT;
+	}
+
+	MessageTransformationException mismatch(String fieldName) {
+		return new MessageTransformationException(
+				"Field \"" + fieldName + "\" must be of type " + name().toLowerCase());
+	}
+
+	/**
+	 * @return the value as a long, if it is an integral number within the given range
+	 * @throws MessageTransformationException if it is not
+	 */
+	long integral(String fieldName, Object value, long min, long max) {
+		Number number = number(fieldName, value);
+		long longValue;
+		if (number instanceof Byte || number instanceof Short || number instanceof Integer || number instanceof Long) {
+			longValue = number.longValue();
+		}
+		else {
+			try {
+				BigDecimal decimal = number instanceof BigDecimal ? (BigDecimal) number
+						: number instanceof BigInteger ? new BigDecimal((BigInteger) number)
+						: new BigDecimal(number.toString());
+				longValue = decimal.longValueExact();
+			}
+			catch (ArithmeticException | NumberFormatException e) {
+				// a fraction, a number beyond the long range, NaN or infinity
+				throw mismatch(fieldName);
+			}
+		}
+		if (longValue < min || longValue > max) {
+			throw mismatch(fieldName);
+		}
+		return longValue;
+	}
+
+	Number number(String fieldName, Object value) {
+		if (value == null) {
+			return 0;
+		}
+		if (!(value instanceof Number)) {
+			throw mismatch(fieldName);
+		}
+		return (Number) value;
+	}
+}
@@ -15,12 +15,11 @@
 
 package org.springframework.cloud.stream.app.gemfire;
 
-import org.apache.geode.pdx.JSONFormatter;
-import org.apache.geode.pdx.PdxInstance;
-import org.json.JSONException;
-import org.json.JSONObject;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
 
-import org.springframework.integration.transformer.MessageTransformationException;
+import org.apache.geode.pdx.PdxInstance;
 
 /**
  * @author David Turanski
@@ -29,31 +28,121 @@ import org.springframework.integration.transformer.MessageTransformationExceptio
  */
 public class JsonObjectTransformer {
 
+	private final JsonPdxInstanceReader reader;
+
+	private final PdxInstanceJsonWriter writer = new PdxInstanceJsonWriter();
+
+	public JsonObjectTransformer() {
+		this(new JsonPdxInstanceReader());
+	}
+
+	/**
+	 * @param reader the reader converting JSON documents, for instance one normalizing their fields
+	 */
+	public JsonObjectTransformer(JsonPdxInstanceReader reader) {
+		this.reader = reader;
+	}
+
+	/**
+	 * Convert a JSON document into a {@link PdxInstance} in a single pass.
+	 * @param json the JSON document
+	 * @return the PdxInstance
+	 * @throws org.springframework.integration.transformer.MessageTransformationException if the document is not a
+	 * valid JSON object
+	 */
 	public PdxInstance toObject(String json) {
-		JSONObject jsonObject = null;
-		try {
-			jsonObject = new JSONObject(json);
-		}
-		catch (JSONException e) {
-			throw new MessageTransformationException(e.getMessage());
-		}
-		return JSONFormatter.fromJSON(jsonObject.toString());
+		return this.reader.read(json);
 	}
 
+	/**
+	 * Convert an encoded JSON document into a {@link PdxInstance} without first decoding it into a String.
+	 * @param json the UTF-8 (or UTF-16/UTF-32) encoded JSON document
+	 * @return the PdxInstance
+	 */
 	public PdxInstance toObject(byte[] json) {
-		return toObject(new String(json));
+		return this.reader.read(json);
+	}
+
+	/**
+	 * Convert the remaining bytes of an encoded JSON document into a {@link PdxInstance}.
+	 * @param json a view of the UTF-8 (or UTF-16/UTF-32) encoded JSON document
+	 * @return the PdxInstance
+	 */
+	public PdxInstance toObject(ByteBuffer json) {
+		return this.reader.read(json);
+	}
+
+	/**
+	 * Convert each object of a JSON array, or of newline-delimited JSON, into a {@link PdxInstance} as it is read.
+	 * @param json the JSON documents
+	 * @param consumer receives the PdxInstances in order
+	 * @see JsonPdxInstanceReader#readEach(String, Consumer)
+	 */
+	public void toObjects(String json, Consumer<PdxInstance> consumer) {
+		this.reader.readEach(json, consumer);
 	}
 
+	/**
+	 * Convert each object of encoded JSON documents into a {@link PdxInstance} as it is read.
+	 * @param json the UTF-8 (or UTF-16/UTF-32) encoded JSON documents
+	 * @param consumer receives the PdxInstances in order
+	 */
+	public void toObjects(byte[] json, Consumer<PdxInstance> consumer) {
+		this.reader.readEach(json, 0, json.length, consumer);
+	}
+
+	/**
+	 * Convert each object of the remaining bytes of encoded JSON documents into a {@link PdxInstance} as it is read.
+	 * @param json a view of the UTF-8 (or UTF-16/UTF-32) encoded JSON documents
+	 * @param consumer receives the PdxInstances in order
+	 */
+	public void toObjects(ByteBuffer json, Consumer<PdxInstance> consumer) {
+		this.reader.readEach(json, consumer);
+	}
+
+	/**
+	 * Copy a {@link PdxInstance} created by this transformer with a long field set to the given value.
+	 * @param obj the PdxInstance
+	 * @param fieldName the field name
+	 * @param value the field value
+	 * @return the copy
+	 * @see JsonPdxInstanceReader#withField(PdxInstance, String, long)
+	 */
+	public PdxInstance withField(PdxInstance obj, String fieldName, long value) {
+		return this.reader.withField(obj, fieldName, value);
+	}
+
+	/**
+	 * Render a {@link PdxInstance} as compact JSON; any other object is rendered with its {@code toString()}.
+	 * @param obj the object
+	 * @return the JSON document or string representation, or null if the object is null
+	 */
 	public String toString(Object obj) {
 		if (obj == null) {
 			return null;
 		}
 		if (obj instanceof PdxInstance) {
-			String json = JSONFormatter.toJSON((PdxInstance) obj);
-			// de-pretty
-			return json.replaceAll("\\r\\n\\s*", "").replaceAll("\\n\\s*", "")
-					.replaceAll("\\s*:\\s*", ":").trim();
+			return this.writer.write((PdxInstance) obj);
 		}
 		return obj.toString();
 	}
+
+	/**
+	 * Render a {@link PdxInstance} as UTF-8 encoded compact JSON; a byte array is returned unchanged and any other
+	 * object is rendered with its {@code toString()} and encoded as UTF-8.
+	 * @param obj the object
+	 * @return the encoded JSON document or string representation, or null if the object is null
+	 */
+	public byte[] toBytes(Object obj) {
+		if (obj == null) {
+			return null;
+		}
+		if (obj instanceof PdxInstance) {
+			return this.writer.writeBytes((PdxInstance) obj);
+		}
+		if (obj instanceof byte[]) {
+			return (byte[]) obj;
+		}
+		return obj.toString().getBytes(StandardCharsets.UTF_8);
+	}
 }
@@ -0,0 +1,460 @@
+/*
+ * Copyright 2019 the original author or authors.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.gemfire;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.apache.geode.internal.cache.GemFireCacheImpl;
+import org.apache.geode.pdx.JSONFormatter;
+import org.apache.geode.pdx.PdxFieldAlreadyExistsException;
+import org.apache.geode.pdx.PdxInstance;
+import org.apache.geode.pdx.PdxInstanceFactory;
+import org.apache.geode.pdx.internal.PdxInstanceImpl;
+
+import org.springframework.integration.transformer.MessageTransformationException;
+import org.springframework.util.Assert;
+
+/**
+ * Reads a JSON document into a {@link PdxInstance} in a single pass, streaming the parser tokens straight into a
+ * {@link PdxInstanceFactory}. Field types are mapped exactly as {@link JSONFormatter#fromJSON(String)} maps them, so
+ * the resulting instances share their PDX types with those created by {@link JSONFormatter} and can be rendered back
+ * with {@link JSONFormatter#toJSON(PdxInstance)}.
+ *
+ * Like the {@code org.json} parser previously used to validate payloads, single quoted strings, unquoted field names
+ * and comments are accepted. Malformed documents and duplicate field names are reported as
+ * {@link MessageTransformationException}.
+ *
+ * Since the PDX type of an instance is defined by its field names, their order and their types, documents that list
+ * their fields in varying order or omit optional fields each define a new PDX type. With a canonical field order,
+ * fields are written sorted by name at every level; a schema additionally fixes the type of the declared top-level
+ * fields and writes absent ones with their default value. The number of distinct PDX types of the instances read is
+ * reported by {@link #getPdxTypeCount()}.
+ */
+public class JsonPdxInstanceReader {
+
+	private static final String PDX_UNAVAILABLE = "PDX registry is unavailable because the Cache has been closed.";
+
+	private final JsonFactory jsonFactory;
+
+	private final Set<Integer> pdxTypeIds = ConcurrentHashMap.newKeySet();
+
+	private boolean canonicalFieldOrder;
+
+	private Map<String, JsonFieldType> schema = Collections.emptyMap();
+
+	public JsonPdxInstanceReader() {
+		this(new JsonFactory()
+				.enable(JsonParser.Feature.ALLOW_SINGLE_QUOTES)
+				.enable(JsonParser.Feature.ALLOW_UNQUOTED_FIELD_NAMES)
+				.enable(JsonParser.Feature.ALLOW_COMMENTS));
+	}
+
+	/**
+	 * Create a reader for another data format with a Jackson streaming parser, such as CBOR or MessagePack. Binary
+	 * values of such formats are written as byte arrays.
+	 * @param jsonFactory the factory of the parsers
+	 */
+	public JsonPdxInstanceReader(JsonFactory jsonFactory) {
+		Assert.notNull(jsonFactory, "'jsonFactory' must not be null");
+		this.jsonFactory = jsonFactory;
+	}
+
+	/**
+	 * @param canonicalFieldOrder whether fields are written sorted by name, so that documents with the same fields in
+	 * a different order share a PDX type
+	 */
+	public void setCanonicalFieldOrder(boolean canonicalFieldOrder) {
+		this.canonicalFieldOrder = canonicalFieldOrder;
+	}
+
+	/**
+	 * Declare the type of top-level fields. Declared fields are always written with their type, and with their default
+	 * value when they are absent; other fields are written as usual. A schema implies a canonical field order.
+	 * @param schema the field types by field name
+	 */
+	public void setSchema(Map<String, JsonFieldType> schema) {
+		this.schema = Collections.unmodifiableMap(new TreeMap<>(schema));
+		if (!schema.isEmpty()) {
+			this.canonicalFieldOrder = true;
+		}
+	}
+
+	/**
+	 * @return the number of distinct PDX types of the instances read, including those of nested objects
+	 */
+	public int getPdxTypeCount() {
+		return this.pdxTypeIds.size();
+	}
+
+	public PdxInstance read(String json) {
+		try (JsonParser parser = this.jsonFactory.createParser(json)) {
+			return read(parser);
+		}
+		catch (IOException e) {
+			throw new MessageTransformationException(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Read a JSON document directly from its encoded bytes, without decoding it into an intermediate String. The
+	 * encoding (UTF-8, UTF-16 or UTF-32) is detected from the content, as allowed by the JSON specification.
+	 * @param json the encoded document
+	 * @return the PdxInstance
+	 */
+	public PdxInstance read(byte[] json) {
+		return read(json, 0, json.length);
+	}
+
+	public PdxInstance read(byte[] json, int offset, int length) {
+		try (JsonParser parser = this.jsonFactory.createParser(json, offset, length)) {
+			return read(parser);
+		}
+		catch (IOException e) {
+			throw new MessageTransformationException(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Read a JSON document from the remaining bytes of the buffer. The buffer's position is not changed.
+	 * @param json the encoded document
+	 * @return the PdxInstance
+	 */
+	public PdxInstance read(ByteBuffer json) {
+		if (json.hasArray()) {
+			return read(json.array(), json.arrayOffset() + json.position(), json.remaining());
+		}
+		try (JsonParser parser = this.jsonFactory.createParser(new ByteBufferInputStream(json.duplicate()))) {
+			return read(parser);
+		}
+		catch (IOException e) {
+			throw new MessageTransformationException(e.getMessage(), e);
+		}
+	}
+
+	protected JsonFactory getJsonFactory() {
+		return this.jsonFactory;
+	}
+
+	/**
+	 * Read a document from a parser positioned before its root object, for parsers that need to be configured after
+	 * they are created, such as those requiring a schema.
+	 * @param parser the parser
+	 * @return the PdxInstance
+	 * @throws IOException if the document cannot be parsed
+	 */
+	public PdxInstance read(JsonParser parser) throws IOException {
+		if (parser.nextToken() != JsonToken.START_OBJECT) {
+			throw new MessageTransformationException("A JSON object text must begin with '{'");
+		}
+		return readObject(parser, this.schema);
+	}
+
+	/**
+	 * Read each object of a JSON array of objects, or of a sequence of objects such as newline-delimited JSON, and
+	 * pass it on as soon as it is read, so that only the object being read is held in memory.
+	 * @param json the documents
+	 * @param consumer receives the objects in order
+	 */
+	public void readEach(String json, Consumer<PdxInstance> consumer) {
+		try (JsonParser parser = this.jsonFactory.createParser(json)) {
+			readEach(parser, consumer);
+		}
+		catch (IOException e) {
+			throw new MessageTransformationException(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Read each object of the encoded documents without decoding them into a String first.
+	 * @param json the encoded documents
+	 * @param offset the offset of the documents in the array
+	 * @param length the length of the documents
+	 * @param consumer receives the objects in order
+	 * @see #readEach(String, Consumer)
+	 */
+	public void readEach(byte[] json, int offset, int length, Consumer<PdxInstance> consumer) {
+		try (JsonParser parser = this.jsonFactory.createParser(json, offset, length)) {
+			readEach(parser, consumer);
+		}
+		catch (IOException e) {
+			throw new MessageTransformationException(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Read each object of the documents in the remaining bytes of the buffer. The buffer's position is not changed.
+	 * @param json the encoded documents
+	 * @param consumer receives the objects in order
+	 * @see #readEach(String, Consumer)
+	 */
+	public void readEach(ByteBuffer json, Consumer<PdxInstance> consumer) {
+		if (json.hasArray()) {
+			readEach(json.array(), json.arrayOffset() + json.position(), json.remaining(), consumer);
+			return;
+		}
+		try (JsonParser parser = this.jsonFactory.createParser(new ByteBufferInputStream(json.duplicate()))) {
+			readEach(parser, consumer);
+		}
+		catch (IOException e) {
+			throw new MessageTransformationException(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Read each object of a JSON array of objects, or of a sequence of root-level objects, from a parser positioned
+	 * before the array or the first object.
+	 * @param parser the parser
+	 * @param consumer receives the objects in order
+	 * @throws IOException if the documents cannot be parsed
+	 */
+	public void readEach(JsonParser parser, Consumer<PdxInstance> consumer) throws IOException {
+		JsonToken token = parser.nextToken();
+		boolean array = token == JsonToken.START_ARRAY;
+		if (array) {
+			token = parser.nextToken();
+		}
+		while (token != null && !(array && token == JsonToken.END_ARRAY)) {
+			if (token != JsonToken.START_OBJECT) {
+				throw new JsonParseException(parser, "Expected a JSON object but found " + token);
+			}
+			consumer.accept(readObject(parser, this.schema));
+			token = parser.nextToken();
+		}
+		if (array && parser.nextToken() != null) {
+			throw new JsonParseException(parser, "Unexpected content after the JSON array");
+		}
+	}
+
+	/**
+	 * Create a factory of a JSON document. The public {@code RegionService.createPdxInstanceFactory(String)} cannot be
+	 * used, since its instances are deserialized as an instance of their class name, which for JSON documents does
+	 * not exist.
+	 * @return the factory
+	 */
+	protected PdxInstanceFactory createPdxInstanceFactory() {
+		return GemFireCacheImpl.getForPdx(PDX_UNAVAILABLE).createPdxInstanceFactory(JSONFormatter.JSON_CLASSNAME, false);
+	}
+
+	private PdxInstance readObject(JsonParser parser, Map<String, JsonFieldType> schema) throws IOException {
+		if (this.canonicalFieldOrder) {
+			return readBufferedObject(parser, schema);
+		}
+		PdxInstanceFactory factory = createPdxInstanceFactory();
+		JsonToken token;
+		while ((token = parser.nextToken()) != JsonToken.END_OBJECT) {
+			if (token != JsonToken.FIELD_NAME) {
+				throw new JsonParseException(parser, "Expected a field name but found " + token);
+			}
+			String fieldName = parser.getCurrentName();
+			try {
+				writeField(factory, fieldName, parser.nextToken(), parser);
+			}
+			catch (PdxFieldAlreadyExistsException e) {
+				throw new MessageTransformationException("Duplicate key \"" + fieldName + "\"", e);
+			}
+		}
+		return created(factory.create());
+	}
+
+	/**
+	 * Read the fields of an object before writing them, sorted by name if the field order is canonical, along with
+	 * the absent fields of the schema.
+	 */
+	private PdxInstance readBufferedObject(JsonParser parser, Map<String, JsonFieldType> schema) throws IOException {
+		Map<String, Object> fields = this.canonicalFieldOrder ? new TreeMap<>() : new LinkedHashMap<>();
+		JsonToken token;
+		while ((token = parser.nextToken()) != JsonToken.END_OBJECT) {
+			if (token != JsonToken.FIELD_NAME) {
+				throw new JsonParseException(parser, "Expected a field name but found " + token);
+			}
+			String fieldName = parser.getCurrentName();
+			if (fields.containsKey(fieldName)) {
+				throw new MessageTransformationException("Duplicate key \"" + fieldName + "\"");
+			}
+			token = parser.nextToken();
+			if (token == null) {
+				throw new JsonParseException(parser, "Unexpected end of input after field \"" + fieldName + "\"");
+			}
+			fields.put(fieldName, readValue(token, parser));
+		}
+		for (String fieldName : schema.keySet()) {
+			fields.putIfAbsent(fieldName, null);
+		}
+		String[] names = new String[fields.size()];
+		JsonFieldType[] types = new JsonFieldType[names.length];
+		Object[] values = new Object[names.length];
+		int i = 0;
+		for (Map.Entry<String, Object> field : fields.entrySet()) {
+			JsonFieldType type = schema.get(field.getKey());
+			names[i] = field.getKey();
+			types[i] = type != null ? type : JsonFieldType.of(field.getValue());
+			values[i] = types[i].coerce(names[i], field.getValue());
+			i++;
+		}
+		return create(names, types, values);
+	}
+
+	/**
+	 * Copy an instance read by this reader with a long field set to the given value, for instance to stamp documents
+	 * with an expiration time. The field replaces a field of the same name, or else is added last, or in name order if
+	 * the field order is canonical.
+	 * @param pdxInstance the instance
+	 * @param fieldName the field name
+	 * @param value the field value
+	 * @return the copy
+	 */
+	public PdxInstance withField(PdxInstance pdxInstance, String fieldName, long value) {
+		Map<String, Object> fields = this.canonicalFieldOrder ? new TreeMap<>() : new LinkedHashMap<>();
+		for (String name : pdxInstance.getFieldNames()) {
+			fields.put(name, pdxInstance.getField(name));
+		}
+		fields.put(fieldName, value);
+		String[] names = new String[fields.size()];
+		JsonFieldType[] types = new JsonFieldType[names.length];
+		Object[] values = new Object[names.length];
+		int i = 0;
+		for (Map.Entry<String, Object> field : fields.entrySet()) {
+			JsonFieldType type = field.getKey().equals(fieldName)
+					? JsonFieldType.LONG
+					: this.schema.get(field.getKey());
+			names[i] = field.getKey();
+			types[i] = type != null ? type : JsonFieldType.of(field.getValue());
+			values[i] = types[i].coerce(names[i], field.getValue());
+			i++;
+		}
+		return create(names, types, values);
+	}
+
+	private PdxInstance create(String[] names, JsonFieldType[] types, Object[] values) {
+		PdxInstanceFactory factory = createPdxInstanceFactory();
+		for (int i = 0; i < names.length; i++) {
+			types[i].write(factory, names[i], values[i]);
+		}
+		return created(factory.create());
+	}
+
+	private PdxInstance created(PdxInstance pdxInstance) {
+		if (pdxInstance instanceof PdxInstanceImpl) {
+			this.pdxTypeIds.add(((PdxInstanceImpl) pdxInstance).getPdxType().getTypeId());
+		}
+		return pdxInstance;
+	}
+
+	private List<Object> readArray(JsonParser parser) throws IOException {
+		List<Object> list = new ArrayList<>();
+		JsonToken token;
+		while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+			if (token == null) {
+				throw new JsonParseException(parser, "Unexpected end of input in array");
+			}
+			list.add(readValue(token, parser));
+		}
+		return list;
+	}
+
+	private Object readValue(JsonToken token, JsonParser parser) throws IOException {
+		switch (token) {
+			case START_OBJECT:
+				return readObject(parser, Collections.emptyMap());
+			case START_ARRAY:
+				return readArray(parser);
+			case VALUE_STRING:
+				return parser.getText();
+			case VALUE_NUMBER_INT:
+			case VALUE_NUMBER_FLOAT:
+				return JsonPdxInstances.readNumber(parser);
+			case VALUE_TRUE:
+				return Boolean.TRUE;
+			case VALUE_FALSE:
+				return Boolean.FALSE;
+			case VALUE_NULL:
+				return null;
+			case VALUE_EMBEDDED_OBJECT:
+				return parser.getEmbeddedObject();
+			default:
+				throw new JsonParseException(parser, "Unexpected token " + token);
+		}
+	}
+
+	private void writeField(PdxInstanceFactory factory, String fieldName, JsonToken token, JsonParser parser)
+			throws IOException {
+		if (token == null) {
+			throw new JsonParseException(parser, "Unexpected end of input after field \"" + fieldName + "\"");
+		}
+		switch (token) {
+			case VALUE_STRING:
+				factory.writeString(fieldName, parser.getText());
+				break;
+			case VALUE_TRUE:
+			case VALUE_FALSE:
+				factory.writeBoolean(fieldName, token == JsonToken.VALUE_TRUE);
+				break;
+			case VALUE_NUMBER_INT:
+			case VALUE_NUMBER_FLOAT:
+				JsonPdxInstances.writeField(factory, fieldName, JsonPdxInstances.readNumber(parser));
+				break;
+			default:
+				factory.writeObject(fieldName, readValue(token, parser));
+		}
+	}
+
+	/**
+	 * Streams a direct buffer to the parser in the parser's own chunks, so it is never copied as a whole.
+	 */
+	private static class ByteBufferInputStream extends InputStream {
+
+		private final ByteBuffer buffer;
+
+		ByteBufferInputStream(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read() {
+			return this.buffer.hasRemaining() ? this.buffer.get() & 0xFF : -1;
+		}
+
+		@Override
+		public int read(byte[] bytes, int offset, int length) {
+			if (!this.buffer.hasRemaining()) {
+				return -1;
+			}
+			int count = Math.min(length, this.buffer.remaining());
+			this.buffer.get(bytes, offset, count);
+			return count;
+		}
+
+		@Override
+		public int available() {
+			return this.buffer.remaining();
+		}
+	}
+}
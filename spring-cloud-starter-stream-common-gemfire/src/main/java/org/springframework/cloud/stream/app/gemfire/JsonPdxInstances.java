@@ -0,0 +1,194 @@
+/*
+ * Copyright 2019 the original author or authors.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.gemfire;
+
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Collection;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import org.apache.geode.pdx.JSONFormatter;
+import org.apache.geode.pdx.PdxInstance;
+import org.apache.geode.pdx.PdxInstanceFactory;
+
+/**
+ * Reads and writes the fields of JSON documents with the types {@link JSONFormatter} assigns, so that the documents
+ * written by the sink on the clients and those rewritten by the functions on the servers share their PDX types and can
+ * be rendered back with {@link JSONFormatter#toJSON(PdxInstance)}. Only Geode and Jackson classes are used, so that the
+ * server functions can use them too.
+ */
+public abstract class JsonPdxInstances {
+
+	private JsonPdxInstances() {
+	}
+
+	/**
+	 * Read the current number of a parser, narrowing integral values to the smallest of byte, short and int that
+	 * holds them, as {@link JSONFormatter} does.
+	 * @param parser the parser, positioned on a number
+	 * @return the number
+	 * @throws IOException if the number cannot be read
+	 */
+	public static Number readNumber(JsonParser parser) throws IOException {
+		switch (parser.getNumberType()) {
+			case INT: {
+				int value = parser.getIntValue();
+				if (value > Short.MAX_VALUE || value < Short.MIN_VALUE) {
+					return value;
+				}
+				if (value > Byte.MAX_VALUE || value < Byte.MIN_VALUE) {
+					return (short) value;
+				}
+				return (byte) value;
+			}
+			case LONG:
+				return parser.getLongValue();
+			case BIG_INTEGER:
+				return parser.getBigIntegerValue();
+			case FLOAT:
+				return parser.getFloatValue();
+			case DOUBLE:
+				return parser.getDoubleValue();
+			default:
+				return parser.getDecimalValue();
+		}
+	}
+
+	/**
+	 * Write a field with the type {@link JSONFormatter} gives to a JSON value of the same Java type. Values of other
+	 * types, such as lists, nested documents, BigInteger and BigDecimal, are written as objects.
+	 * @param factory the factory
+	 * @param fieldName the field name
+	 * @param value the value
+	 */
+	public static void writeField(PdxInstanceFactory factory, String fieldName, Object value) {
+		if (value instanceof String) {
+			factory.writeString(fieldName, (String) value);
+		}
+		else if (value instanceof Boolean) {
+			factory.writeBoolean(fieldName, (Boolean) value);
+		}
+		else if (value instanceof Byte) {
+			factory.writeByte(fieldName, (Byte) value);
+		}
+		else if (value instanceof Short) {
+			factory.writeShort(fieldName, (Short) value);
+		}
+		else if (value instanceof Integer) {
+			factory.writeInt(fieldName, (Integer) value);
+		}
+		else if (value instanceof Long) {
+			factory.writeLong(fieldName, (Long) value);
+		}
+		else if (value instanceof Float) {
+			factory.writeFloat(fieldName, (Float) value);
+		}
+		else if (value instanceof Double) {
+			factory.writeDouble(fieldName, (Double) value);
+		}
+		else {
+			factory.writeObject(fieldName, value);
+		}
+	}
+
+	/**
+	 * Write a document by walking its fields with {@link PdxInstance#getFieldNames()} and
+	 * {@link PdxInstance#getField(String)}, in PDX field order.
+	 * @param pdxInstance the document
+	 * @param generator the generator
+	 * @throws IOException if the document cannot be written
+	 */
+	public static void writeDocument(PdxInstance pdxInstance, JsonGenerator generator) throws IOException {
+		generator.writeStartObject();
+		for (String fieldName : pdxInstance.getFieldNames()) {
+			generator.writeFieldName(fieldName);
+			writeValue(pdxInstance.getField(fieldName), generator);
+		}
+		generator.writeEndObject();
+	}
+
+	/**
+	 * Write a field value of a document, or any value of the Java types a JSON document is read into, such as maps,
+	 * collections and arrays.
+	 * @param value the value
+	 * @param generator the generator
+	 * @throws IOException if the value cannot be written
+	 */
+	public static void writeValue(Object value, JsonGenerator generator) throws IOException {
+		if (value == null) {
+			generator.writeNull();
+		}
+		else if (value instanceof String) {
+			generator.writeString((String) value);
+		}
+		else if (value instanceof PdxInstance) {
+			writeDocument((PdxInstance) value, generator);
+		}
+		else if (value instanceof Boolean) {
+			generator.writeBoolean((Boolean) value);
+		}
+		else if (value instanceof Byte || value instanceof Short || value instanceof Integer) {
+			generator.writeNumber(((Number) value).intValue());
+		}
+		else if (value instanceof Long) {
+			generator.writeNumber((Long) value);
+		}
+		else if (value instanceof Double) {
+			generator.writeNumber((Double) value);
+		}
+		else if (value instanceof Float) {
+			generator.writeNumber((Float) value);
+		}
+		else if (value instanceof BigDecimal) {
+			generator.writeNumber((BigDecimal) value);
+		}
+		else if (value instanceof BigInteger) {
+			generator.writeNumber((BigInteger) value);
+		}
+		else if (value instanceof Collection) {
+			generator.writeStartArray();
+			for (Object element : (Collection<?>) value) {
+				writeValue(element, generator);
+			}
+			generator.writeEndArray();
+		}
+		else if (value.getClass().isArray()) {
+			generator.writeStartArray();
+			for (int i = 0, length = Array.getLength(value); i < length; i++) {
+				writeValue(Array.get(value, i), generator);
+			}
+			generator.writeEndArray();
+		}
+		else if (value instanceof Map) {
+			generator.writeStartObject();
+			for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+				generator.writeFieldName(String.valueOf(entry.getKey()));
+				writeValue(entry.getValue(), generator);
+			}
+			generator.writeEndObject();
+		}
+		else if (value instanceof Enum) {
+			generator.writeString(((Enum<?>) value).name());
+		}
+		else {
+			generator.writeString(value.toString());
+		}
+	}
+}
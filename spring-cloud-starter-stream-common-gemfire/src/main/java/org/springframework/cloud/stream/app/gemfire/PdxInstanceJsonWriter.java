@@ -0,0 +1,142 @@
+/*
+ * Copyright 2019 the original author or authors.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.gemfire;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+import org.apache.geode.pdx.PdxInstance;
+
+import org.springframework.integration.transformer.MessageTransformationException;
+
+/**
+ * Writes a {@link PdxInstance} as compact JSON by walking its fields with {@link PdxInstance#getFieldNames()} and
+ * {@link PdxInstance#getField(String)}. Fields are written in PDX field order, which for instances created from JSON
+ * is the order of the original document. Output, either characters or UTF-8 bytes, is accumulated in a per-thread
+ * buffer that is reused across calls.
+ */
+public class PdxInstanceJsonWriter {
+
+	/**
+	 * Buffers that grew beyond this size while writing an unusually large instance are not retained.
+	 */
+	private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+
+	private final JsonFactory jsonFactory = new JsonFactory().disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+	private final ThreadLocal<StringBuilderWriter> buffers = ThreadLocal.withInitial(StringBuilderWriter::new);
+
+	private final ThreadLocal<ByteArrayBuilder> byteBuffers = ThreadLocal.withInitial(ByteArrayBuilder::new);
+
+	public String write(PdxInstance pdxInstance) {
+		StringBuilderWriter buffer = this.buffers.get();
+		try {
+			try (JsonGenerator generator = this.jsonFactory.createGenerator(buffer)) {
+				write(pdxInstance, generator);
+			}
+			return buffer.content();
+		}
+		catch (IOException e) {
+			throw new MessageTransformationException("Failed to write PdxInstance as JSON: " + e.getMessage(), e);
+		}
+		finally {
+			buffer.reset();
+			if (buffer.capacity() > MAX_RETAINED_CAPACITY) {
+				this.buffers.remove();
+			}
+		}
+	}
+
+	/**
+	 * Write the instance as UTF-8 encoded JSON without producing an intermediate String.
+	 * @param pdxInstance the instance
+	 * @return the encoded JSON document
+	 */
+	public byte[] writeBytes(PdxInstance pdxInstance) {
+		ByteArrayBuilder buffer = this.byteBuffers.get();
+		try {
+			try (JsonGenerator generator = this.jsonFactory.createGenerator(buffer, JsonEncoding.UTF8)) {
+				write(pdxInstance, generator);
+			}
+			return buffer.toByteArray();
+		}
+		catch (IOException e) {
+			throw new MessageTransformationException("Failed to write PdxInstance as JSON: " + e.getMessage(), e);
+		}
+		finally {
+			buffer.reset();
+			// the builder keeps its last and largest block
+			if (buffer.getCurrentSegment().length > MAX_RETAINED_CAPACITY) {
+				this.byteBuffers.remove();
+			}
+		}
+	}
+
+	protected JsonFactory getJsonFactory() {
+		return this.jsonFactory;
+	}
+
+	protected void write(PdxInstance pdxInstance, JsonGenerator generator) throws IOException {
+		JsonPdxInstances.writeDocument(pdxInstance, generator);
+	}
+
+	/**
+	 * An unsynchronized {@link Writer} over a {@link StringBuilder} that is reset after each document.
+	 */
+	private static class StringBuilderWriter extends Writer {
+
+		private final StringBuilder builder = new StringBuilder(1024);
+
+		@Override
+		public void write(char[] chars, int offset, int length) {
+			this.builder.append(chars, offset, length);
+		}
+
+		@Override
+		public void write(String string, int offset, int length) {
+			this.builder.append(string, offset, offset + length);
+		}
+
+		@Override
+		public void write(int c) {
+			this.builder.append((char) c);
+		}
+
+		@Override
+		public void flush() {
+		}
+
+		@Override
+		public void close() {
+		}
+
+		int capacity() {
+			return this.builder.capacity();
+		}
+
+		String content() {
+			return this.builder.toString();
+		}
+
+		void reset() {
+			this.builder.setLength(0);
+		}
+	}
+}
@@ -27,8 +27,8 @@ import org.springframework.data.gemfire.support.ConnectionEndpointList;
 
 /**
  * Common Gemfire client pool configuration for spring-cloud-stream apps. This
- * configures the 'hostAddresses', 'connectType' ('server' or 'locator), and
- * 'subscriptionsEnabled' ('true' required for Gemfire Source apps).
+ * configures the 'hostAddresses', 'connectType' ('server' or 'locator),
+ * 'subscriptionsEnabled' ('true' required for Gemfire Source apps) and 'prSingleHopEnabled'.
  *
  * @see GemfirePoolProperties
  *
@@ -58,6 +58,7 @@ public class GemfirePoolConfiguration {
 				throw new IllegalArgumentException("connectType " + config.getConnectType() + " is not supported.");
 			}
 		poolFactoryBean.setSubscriptionEnabled(config.isSubscriptionEnabled());
+		poolFactoryBean.setPrSingleHopEnabled(config.isPrSingleHopEnabled());
 		poolFactoryBean.setName("gemfirePool");
 		return poolFactoryBean;
 	}
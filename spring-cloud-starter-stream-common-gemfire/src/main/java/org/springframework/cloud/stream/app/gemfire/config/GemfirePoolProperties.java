@@ -47,6 +47,12 @@ public class GemfirePoolProperties {
 	 */
 	private boolean subscriptionEnabled;
 
+	/**
+	 * Set to true to use the partitioned region metadata to send single key operations directly to, and split bulk
+	 * operations (such as putAll) across, the servers hosting the keys.
+	 */
+	private boolean prSingleHopEnabled = true;
+
 	@NotEmpty
 	public InetSocketAddress[] getHostAddresses() {
 		return hostAddresses;
@@ -72,4 +78,12 @@ public class GemfirePoolProperties {
 		this.subscriptionEnabled = subscriptionEnabled;
 	}
 
+	public boolean isPrSingleHopEnabled() {
+		return prSingleHopEnabled;
+	}
+
+	public void setPrSingleHopEnabled(boolean prSingleHopEnabled) {
+		this.prSingleHopEnabled = prSingleHopEnabled;
+	}
+
 }
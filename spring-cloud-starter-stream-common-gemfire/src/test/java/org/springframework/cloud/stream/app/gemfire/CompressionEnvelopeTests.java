@@ -0,0 +1,84 @@
+/*
+ * Copyright 2019 the original author or authors.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.gemfire;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.converter.MessageConversionException;
+import org.springframework.messaging.support.GenericMessage;
+import org.springframework.util.MimeTypeUtils;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class CompressionEnvelopeTests {
+
+	private static final String DOCUMENT = document();
+
+	@Test
+	public void testRoundTrip() {
+		byte[] json = DOCUMENT.getBytes(StandardCharsets.UTF_8);
+		byte[] envelope = CompressionEnvelope.wrap(CompressionEnvelope.Content.JSON, json, 0, json.length);
+		assertThat(envelope.length < json.length / 4, equalTo(true));
+		assertThat(CompressionEnvelope.isEnvelope(envelope), equalTo(true));
+		assertThat(CompressionEnvelope.isEnvelope(json), equalTo(false));
+		assertThat(CompressionEnvelope.getContent(envelope), equalTo(CompressionEnvelope.Content.JSON));
+		assertThat(CompressionEnvelope.unwrap(envelope), equalTo(json));
+	}
+
+	@Test
+	public void testIncompressibleValue() {
+		byte[] random = new byte[1024];
+		new Random(0).nextBytes(random);
+		assertThat(CompressionEnvelope.wrap(CompressionEnvelope.Content.BYTES, random, 0, random.length), nullValue());
+	}
+
+	@Test
+	public void testDecompressMessage() {
+		byte[] json = DOCUMENT.getBytes(StandardCharsets.UTF_8);
+		Message<?> message = new GenericMessage<>(
+				CompressionEnvelope.wrap(CompressionEnvelope.Content.JSON, json, 0, json.length));
+		assertThat(CompressionEnvelope.decompress(message, false).getPayload(), equalTo(DOCUMENT));
+		Message<?> bytes = CompressionEnvelope.decompress(message, true);
+		assertThat(bytes.getPayload(), equalTo(json));
+		assertThat(bytes.getHeaders().get(MessageHeaders.CONTENT_TYPE), equalTo(MimeTypeUtils.APPLICATION_JSON_VALUE));
+		Message<?> plain = new GenericMessage<>(json);
+		assertThat(CompressionEnvelope.decompress(plain, false), equalTo(plain));
+	}
+
+	@Test(expected = MessageConversionException.class)
+	public void testCorruptEnvelope() {
+		byte[] json = DOCUMENT.getBytes(StandardCharsets.UTF_8);
+		byte[] envelope = CompressionEnvelope.wrap(CompressionEnvelope.Content.JSON, json, 0, json.length);
+		CompressionEnvelope.unwrap(Arrays.copyOf(envelope, envelope.length / 2));
+	}
+
+	private static String document() {
+		StringBuilder document = new StringBuilder("{\"quotes\":[");
+		for (int i = 0; i < 1000; i++) {
+			document.append(i > 0 ? "," : "").append("{\"symbol\":\"S").append(i % 10).append("\",\"price\":")
+					.append(i % 7).append('}');
+		}
+		return document.append("]}").toString();
+	}
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2019 the original author or authors.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.gemfire;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.geode.cache.Cache;
+import org.apache.geode.cache.CacheFactory;
+import org.apache.geode.pdx.JSONFormatter;
+import org.apache.geode.pdx.PdxInstance;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the JSON to {@link PdxInstance} conversion used by the sink in JSON mode against the previous
+ * {@code JSONObject} round trip, and the direct {@code byte[]} path against decoding to a String first, and
+ * the compact JSON writer against pretty printing and stripping whitespace with regular expressions, for documents of
+ * 1, 10 and 50 KB. A loner cache provides the PDX registry.
+ *
+ * Run from the IDE, or with {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=org.springframework.cloud.stream.app.gemfire.JsonObjectTransformerBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonObjectTransformerBenchmark {
+
+	@Param({ "1", "10", "50" })
+	private int documentSizeKb;
+
+	private Cache cache;
+
+	private JsonObjectTransformer transformer;
+
+	private String json;
+
+	private byte[] jsonBytes;
+
+	private PdxInstance pdxInstance;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		this.cache = new CacheFactory().set("mcast-port", "0").set("log-level", "warning").create();
+		this.transformer = new JsonObjectTransformer();
+		this.json = document(this.documentSizeKb * 1024);
+		this.jsonBytes = this.json.getBytes(StandardCharsets.UTF_8);
+		this.pdxInstance = this.transformer.toObject(this.json);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		this.cache.close();
+	}
+
+	@Benchmark
+	public PdxInstance jsonObjectRoundTrip() throws JSONException {
+		return JSONFormatter.fromJSON(new JSONObject(this.json).toString());
+	}
+
+	@Benchmark
+	public PdxInstance singlePass() {
+		return this.transformer.toObject(this.json);
+	}
+
+	@Benchmark
+	public PdxInstance bytesDecodedToString() {
+		return this.transformer.toObject(new String(this.jsonBytes, StandardCharsets.UTF_8));
+	}
+
+	@Benchmark
+	public PdxInstance bytes() {
+		return this.transformer.toObject(this.jsonBytes);
+	}
+
+	@Benchmark
+	public String prettyPrintedThenStripped() {
+		return JSONFormatter.toJSON(this.pdxInstance).replaceAll("\\r\\n\\s*", "").replaceAll("\\n\\s*", "")
+				.replaceAll("\\s*:\\s*", ":").trim();
+	}
+
+	@Benchmark
+	public String compact() {
+		return this.transformer.toString(this.pdxInstance);
+	}
+
+	/**
+	 * Build a document of roughly the given size mixing the field types seen in typical payloads. Field names are
+	 * stable for a given size so that, as in production, every conversion reuses the same PDX types.
+	 */
+	static String document(int size) {
+		StringBuilder json = new StringBuilder(size + 256).append('{');
+		for (int i = 0; json.length() < size; i++) {
+			if (i > 0) {
+				json.append(',');
+			}
+			switch (i % 5) {
+				case 0:
+					json.append("\"name").append(i).append("\":\"value of field ").append(i).append('"');
+					break;
+				case 1:
+					json.append("\"count").append(i).append("\":").append(i * 1000);
+					break;
+				case 2:
+					json.append("\"price").append(i).append("\":").append(i + 0.25);
+					break;
+				case 3:
+					json.append("\"tags").append(i).append("\":[\"a\",\"b\",").append(i).append(",true]");
+					break;
+				default:
+					json.append("\"detail").append(i).append("\":{\"active\":").append(i % 2 == 0)
+							.append(",\"code\":\"C").append(i).append("\",\"ratio\":").append(i / 7.0)
+							.append(",\"note\":null}");
+			}
+		}
+		return json.append('}').toString();
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(JsonObjectTransformerBenchmark.class.getSimpleName()).build()).run();
+	}
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright 2019 the original author or authors.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.gemfire;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.apache.geode.cache.Cache;
+import org.apache.geode.cache.CacheFactory;
+import org.apache.geode.pdx.JSONFormatter;
+import org.apache.geode.pdx.PdxInstance;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import org.springframework.integration.transformer.MessageTransformationException;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+
+public class JsonObjectTransformerTests {
+
+	private static Cache cache;
+
+	private final JsonObjectTransformer transformer = new JsonObjectTransformer();
+
+	@BeforeClass
+	public static void setup() {
+		cache = new CacheFactory().set("mcast-port", "0").set("log-level", "warning").create();
+	}
+
+	@AfterClass
+	public static void tearDown() {
+		cache.close();
+	}
+
+	@Test
+	public void testFieldTypesMatchJsonFormatter() {
+		String json = "{\"name\":\"foo\",\"small\":1,\"medium\":1000,\"large\":100000,\"huge\":10000000000,"
+				+ "\"price\":1.5,\"active\":true,\"none\":null,\"tags\":[\"a\",2],\"nested\":{\"x\":\"y\"}}";
+		PdxInstance pdxInstance = transformer.toObject(json);
+		PdxInstance expected = JSONFormatter.fromJSON(json);
+		assertThat(pdxInstance, equalTo(expected));
+		assertThat(pdxInstance.getField("small"), instanceOf(Byte.class));
+		assertThat(pdxInstance.getField("medium"), instanceOf(Short.class));
+		assertThat(pdxInstance.getField("large"), instanceOf(Integer.class));
+		assertThat(pdxInstance.getField("huge"), instanceOf(Long.class));
+		assertThat(pdxInstance.getField("none"), nullValue());
+		assertThat(pdxInstance.getField("tags"), instanceOf(List.class));
+		assertThat(pdxInstance.getField("nested"), instanceOf(PdxInstance.class));
+	}
+
+	@Test
+	public void testRoundTrip() {
+		String json = "{\"first\":\"second\"}";
+		assertThat(transformer.toString(transformer.toObject(json)), equalTo(json));
+	}
+
+	@Test
+	public void testToStringPreservesStringValues() {
+		String json = "{\"text\":\"key : value\\nnext line\",\"nested\":{\"list\":[1,\"two\",null,3.5]},\"flag\":false}";
+		assertThat(transformer.toString(transformer.toObject(json)), equalTo(json));
+	}
+
+	@Test
+	public void testWriterDiscardsOutputOfFailedWrite() {
+		PdxInstance failing = transformer.toObject("{\"fail\":true}");
+		PdxInstanceJsonWriter writer = new PdxInstanceJsonWriter() {
+
+			@Override
+			protected void write(PdxInstance pdxInstance, JsonGenerator generator) throws IOException {
+				super.write(pdxInstance, generator);
+				if (pdxInstance.hasField("fail")) {
+					generator.flush();
+					throw new IOException("write failed");
+				}
+			}
+
+		};
+		try {
+			writer.write(failing);
+			fail("expected the write to fail");
+		}
+		catch (MessageTransformationException e) {
+			assertThat(e.getMessage(), containsString("write failed"));
+		}
+		String json = "{\"symbol\":\"A\"}";
+		assertThat(writer.write(transformer.toObject(json)), equalTo(json));
+	}
+
+	@Test
+	public void testUtf8ByteArray() {
+		String json = "{\"city\":\"Zürich\",\"symbol\":\"€\"}";
+		PdxInstance pdxInstance = transformer.toObject(json.getBytes(StandardCharsets.UTF_8));
+		assertThat(pdxInstance.getField("city"), equalTo("Zürich"));
+		assertThat(pdxInstance.getField("symbol"), equalTo("€"));
+	}
+
+	@Test
+	public void testByteBuffer() {
+		byte[] json = "{\"first\":\"second\"}".getBytes(StandardCharsets.UTF_8);
+		ByteBuffer direct = ByteBuffer.allocateDirect(json.length);
+		direct.put(json).flip();
+		assertThat(transformer.toObject(direct).getField("first"), equalTo("second"));
+		assertThat(direct.remaining(), equalTo(json.length));
+		ByteBuffer slice = ByteBuffer.wrap(("xx" + "{\"first\":\"second\"}").getBytes(StandardCharsets.UTF_8));
+		slice.position(2);
+		assertThat(transformer.toObject(slice).getField("first"), equalTo("second"));
+	}
+
+	@Test(expected = MessageTransformationException.class)
+	public void testMalformedJson() {
+		transformer.toObject("{\"first\":");
+	}
+
+	@Test(expected = MessageTransformationException.class)
+	public void testNotAnObject() {
+		transformer.toObject("[1,2,3]");
+	}
+
+	@Test(expected = MessageTransformationException.class)
+	public void testDuplicateKey() {
+		transformer.toObject("{\"first\":1,\"first\":2}");
+	}
+
+	@Test
+	public void testCanonicalFieldOrderSharesPdxType() {
+		JsonPdxInstanceReader reader = new JsonPdxInstanceReader();
+		reader.setCanonicalFieldOrder(true);
+		JsonObjectTransformer canonical = new JsonObjectTransformer(reader);
+		PdxInstance first = canonical.toObject("{\"b\":\"x\",\"a\":1,\"c\":{\"z\":true,\"y\":false}}");
+		PdxInstance second = canonical.toObject("{\"c\":{\"y\":true,\"z\":false},\"a\":2,\"b\":\"y\"}");
+		assertThat(first.getFieldNames(), equalTo(Arrays.asList("a", "b", "c")));
+		assertThat(second.getFieldNames(), equalTo(first.getFieldNames()));
+		assertThat(reader.getPdxTypeCount(), equalTo(2));
+		assertThat(canonical.toString(second), equalTo("{\"a\":2,\"b\":\"y\",\"c\":{\"y\":true,\"z\":false}}"));
+	}
+
+	@Test
+	public void testSchemaFixesOptionalFieldsAndTypes() {
+		Map<String, JsonFieldType> schema = new HashMap<>();
+		schema.put("price", JsonFieldType.DOUBLE);
+		schema.put("quantity", JsonFieldType.INT);
+		schema.put("note", JsonFieldType.STRING);
+		JsonPdxInstanceReader reader = new JsonPdxInstanceReader();
+		reader.setSchema(schema);
+		JsonObjectTransformer normalizing = new JsonObjectTransformer(reader);
+		PdxInstance first = normalizing.toObject("{\"symbol\":\"A\",\"price\":1,\"quantity\":5}");
+		PdxInstance second = normalizing
+				.toObject("{\"quantity\":100000,\"note\":\"n\",\"symbol\":\"B\",\"price\":2.5}");
+		assertThat(reader.getPdxTypeCount(), equalTo(1));
+		assertThat(first.getField("price"), equalTo(1.0d));
+		assertThat(first.getField("quantity"), equalTo(5));
+		assertThat(first.getField("note"), nullValue());
+		assertThat(second.getField("quantity"), equalTo(100000));
+	}
+
+	@Test(expected = MessageTransformationException.class)
+	public void testSchemaTypeMismatch() {
+		JsonPdxInstanceReader reader = new JsonPdxInstanceReader();
+		reader.setSchema(Collections.singletonMap("price", JsonFieldType.DOUBLE));
+		new JsonObjectTransformer(reader).toObject("{\"price\":\"high\"}");
+	}
+
+	@Test
+	public void testSchemaRejectsNumbersTheTypeCannotHold() {
+		Map<String, JsonFieldType> schema = new HashMap<>();
+		schema.put("flag", JsonFieldType.BYTE);
+		schema.put("quantity", JsonFieldType.INT);
+		schema.put("ratio", JsonFieldType.FLOAT);
+		JsonPdxInstanceReader reader = new JsonPdxInstanceReader();
+		reader.setSchema(schema);
+		JsonObjectTransformer normalizing = new JsonObjectTransformer(reader);
+		PdxInstance valid = normalizing.toObject("{\"flag\":-128,\"quantity\":2.0E3,\"ratio\":0.5}");
+		assertThat(valid.getField("flag"), equalTo((byte) -128));
+		assertThat(valid.getField("quantity"), equalTo(2000));
+		for (String document : new String[] { "{\"flag\":128}", "{\"quantity\":2147483648}",
+				"{\"quantity\":1.5}", "{\"quantity\":99999999999999999999}", "{\"ratio\":1e39}" }) {
+			try {
+				normalizing.toObject(document);
+				fail("Expected a type mismatch for " + document);
+			}
+			catch (MessageTransformationException e) {
+				assertThat(e.getMessage(), containsString("must be of type"));
+			}
+		}
+	}
+
+	@Test(expected = MessageTransformationException.class)
+	public void testCanonicalDuplicateKey() {
+		JsonPdxInstanceReader reader = new JsonPdxInstanceReader();
+		reader.setCanonicalFieldOrder(true);
+		new JsonObjectTransformer(reader).toObject("{\"first\":1,\"first\":2}");
+	}
+
+	@Test
+	public void testWithFieldAddsOrReplacesLongField() {
+		JsonPdxInstanceReader reader = new JsonPdxInstanceReader();
+		reader.setCanonicalFieldOrder(true);
+		JsonObjectTransformer canonical = new JsonObjectTransformer(reader);
+		PdxInstance stamped = canonical.withField(canonical.toObject("{\"symbol\":\"A\",\"price\":1.5}"), "expiresAt",
+				1000L);
+		assertThat(stamped.getFieldNames(), equalTo(Arrays.asList("expiresAt", "price", "symbol")));
+		assertThat(stamped.getField("expiresAt"), equalTo(1000L));
+		assertThat(stamped.getField("price"), equalTo(1.5d));
+		PdxInstance restamped = canonical.withField(stamped, "expiresAt", 2000L);
+		assertThat(restamped.getField("expiresAt"), equalTo(2000L));
+		assertThat(reader.getPdxTypeCount(), equalTo(2));
+	}
+
+	@Test
+	public void testToObjectsReadsArrayAndNdjson() {
+		List<PdxInstance> records = new ArrayList<>();
+		transformer.toObjects("[{\"id\":1},{\"id\":2}]", records::add);
+		transformer.toObjects("{\"id\":3}\n{\"id\":4}\n".getBytes(StandardCharsets.UTF_8), records::add);
+		transformer.toObjects(ByteBuffer.wrap("[]".getBytes(StandardCharsets.UTF_8)), records::add);
+		assertThat(records.size(), equalTo(4));
+		for (int i = 0; i < records.size(); i++) {
+			assertThat(records.get(i).getField("id"), equalTo((byte) (i + 1)));
+		}
+	}
+
+	@Test(expected = MessageTransformationException.class)
+	public void testToObjectsRejectsNonObjectRecords() {
+		transformer.toObjects("[{\"id\":1},2]", record -> { });
+	}
+}
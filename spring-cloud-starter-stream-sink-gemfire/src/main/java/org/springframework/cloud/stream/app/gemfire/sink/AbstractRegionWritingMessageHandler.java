@@ -0,0 +1,106 @@
+/*
+ * Copyright 2019 the original author or authors.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.gemfire.sink;
+
+import org.apache.geode.cache.Region;
+
+import org.springframework.expression.EvaluationContext;
+import org.springframework.expression.Expression;
+import org.springframework.integration.expression.ExpressionUtils;
+import org.springframework.integration.handler.AbstractMessageHandler;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHandlingException;
+import org.springframework.util.Assert;
+
+/**
+ * Base class for the sink handlers that write message payloads to the region themselves rather than through a
+ * {@link org.springframework.integration.gemfire.outbound.CacheWritingMessageHandler}. Provides the target region
+ * and the evaluation of the cache key for each message. A handler used as the writer of a lane is given the key the
+ * lane already evaluated through {@link #handleMessage(Object, Message)}, so that it is not evaluated twice.
+ */
+abstract class AbstractRegionWritingMessageHandler extends AbstractMessageHandler {
+
+	private final Region<Object, Object> region;
+
+	private final Expression keyExpression;
+
+	private EvaluationContext evaluationContext;
+
+	@SuppressWarnings("unchecked")
+	AbstractRegionWritingMessageHandler(Region<?, ?> region, Expression keyExpression) {
+		Assert.notNull(region, "'region' must not be null");
+		Assert.notNull(keyExpression, "'keyExpression' must not be null");
+		this.region = (Region<Object, Object>) region;
+		this.keyExpression = keyExpression;
+	}
+
+	@Override
+	protected void onInit() {
+		super.onInit();
+		this.evaluationContext = ExpressionUtils.createStandardEvaluationContext(getBeanFactory());
+	}
+
+	@Override
+	protected void handleMessageInternal(Message<?> message) {
+		handleMessageInternal(evaluateKey(message), message);
+	}
+
+	/**
+	 * Handle a message whose cache key has already been evaluated.
+	 * @param key the key
+	 * @param message the message
+	 */
+	void handleMessage(Object key, Message<?> message) {
+		handleMessageInternal(key, message);
+	}
+
+	/**
+	 * @param key the evaluated cache key of the message
+	 * @param message the message
+	 */
+	protected abstract void handleMessageInternal(Object key, Message<?> message);
+
+	protected Region<Object, Object> getRegion() {
+		return this.region;
+	}
+
+	protected EvaluationContext getEvaluationContext() {
+		return this.evaluationContext;
+	}
+
+	/**
+	 * Write the value to the region, or remove the entry if the value is a {@link Tombstone}.
+	 * @param key the key
+	 * @param value the value
+	 */
+	protected void write(Object key, Object value) {
+		if (Tombstone.isTombstone(value)) {
+			this.region.remove(key);
+		}
+		else {
+			this.region.put(key, value);
+		}
+	}
+
+	protected Object evaluateKey(Message<?> message) {
+		Object key = this.keyExpression.getValue(this.evaluationContext, message);
+		if (key == null) {
+			throw new MessageHandlingException(message,
+					"The key expression '" + this.keyExpression.getExpressionString() + "' evaluated to null");
+		}
+		return key;
+	}
+}
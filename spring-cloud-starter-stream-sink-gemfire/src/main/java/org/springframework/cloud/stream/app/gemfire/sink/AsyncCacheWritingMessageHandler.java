@@ -0,0 +1,110 @@
+/*
+ * Copyright 2019 the original author or authors.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.gemfire.sink;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.geode.cache.Region;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.expression.Expression;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHandlingException;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.util.Assert;
+
+/**
+ * A {@link org.springframework.messaging.MessageHandler} that writes entries to the region on a pool of worker
+ * threads, keeping up to {@code maxInFlight} puts outstanding at any time. When the window is full the calling
+ * (binder) thread blocks until a write completes, which applies backpressure to the binder.
+ *
+ * Writes for the same key are chained, so they are applied in the order the messages were received, while writes for
+ * different keys proceed in parallel. The binder has acknowledged a message by the time its write completes, so a
+ * failed write is logged and, with {@link DeadLetters} set, the message is sent to the error channel.
+ */
+class AsyncCacheWritingMessageHandler extends AbstractRegionWritingMessageHandler implements DisposableBean {
+
+	private static final long SHUTDOWN_TIMEOUT_SECONDS = 30;
+
+	private final ConcurrentMap<Object, CompletableFuture<Void>> pendingWrites = new ConcurrentHashMap<>();
+
+	private final Semaphore window;
+
+	private final ExecutorService executor;
+
+	private DeadLetters deadLetters;
+
+	AsyncCacheWritingMessageHandler(Region<?, ?> region, Expression keyExpression, int maxInFlight) {
+		super(region, keyExpression);
+		Assert.isTrue(maxInFlight > 0, "'maxInFlight' must be greater than 0");
+		this.window = new Semaphore(maxInFlight);
+		this.executor = Executors.newFixedThreadPool(maxInFlight, new CustomizableThreadFactory("gemfire-sink-"));
+	}
+
+	/**
+	 * Send the messages whose write failed to the error channel.
+	 * @param deadLetters the dead letters, or null to only log failures
+	 */
+	void setDeadLetters(DeadLetters deadLetters) {
+		this.deadLetters = deadLetters;
+	}
+
+	@Override
+	public String getComponentType() {
+		return "gemfire:async-outbound-channel-adapter";
+	}
+
+	@Override
+	protected void handleMessageInternal(Object key, Message<?> message) {
+		try {
+			this.window.acquire();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new MessageHandlingException(message, "Interrupted while waiting for an in-flight write", e);
+		}
+		CompletableFuture<Void> write = this.pendingWrites.compute(key, (k, previous) -> previous == null
+				? CompletableFuture.runAsync(() -> write(k, message.getPayload()), this.executor)
+				: previous.handle((result, ex) -> result)
+						.thenRunAsync(() -> write(k, message.getPayload()), this.executor));
+		write.whenComplete((result, ex) -> {
+			this.pendingWrites.remove(key, write);
+			this.window.release();
+			if (ex != null) {
+				logger.error("Failed to write entry with key '" + key + "' to region '" + getRegion().getName() + "'",
+						ex);
+				if (this.deadLetters != null) {
+					this.deadLetters.send(message, ex instanceof CompletionException ? ex.getCause() : ex);
+				}
+			}
+		});
+	}
+
+	@Override
+	public void destroy() throws InterruptedException {
+		this.executor.shutdown();
+		if (!this.executor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+			logger.warn("Timed out waiting for in-flight writes to complete");
+		}
+	}
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2019 the original author or authors.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.gemfire.sink;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.fasterxml.jackson.dataformat.avro.AvroFactory;
+import com.fasterxml.jackson.dataformat.avro.AvroParser;
+import com.fasterxml.jackson.dataformat.avro.AvroSchema;
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaNormalization;
+import org.apache.geode.pdx.PdxInstance;
+
+import org.springframework.cloud.stream.app.gemfire.JsonPdxInstanceReader;
+import org.springframework.integration.transformer.MessageTransformationException;
+import org.springframework.messaging.converter.MessageConversionException;
+import org.springframework.util.MimeType;
+
+/**
+ * Converts Avro records in the single object encoding, a two byte marker followed by the 64-bit fingerprint of the
+ * writer schema and the binary encoded record, straight into {@link PdxInstance}s. The writer schema is looked up by
+ * its fingerprint among the registered schemas, each of which is parsed once and cached with its decoding state.
+ * Records are mapped to objects, Avro maps to nested objects, arrays to lists and enums to strings.
+ */
+class AvroPdxInstanceConverter implements PdxInstanceConverter {
+
+	private static final MimeType AVRO = new MimeType("application", "avro");
+
+	private static final MimeType AVRO_SUFFIX = new MimeType("application", "*+avro");
+
+	private static final int HEADER_LENGTH = 10;
+
+	private final AvroFactory avroFactory = new AvroFactory();
+
+	private final JsonPdxInstanceReader reader;
+
+	private final Map<Long, AvroSchema> schemas = new ConcurrentHashMap<>();
+
+	/**
+	 * @param reader the reader building the instances from the parsed records
+	 */
+	AvroPdxInstanceConverter(JsonPdxInstanceReader reader) {
+		this.reader = reader;
+	}
+
+	/**
+	 * Register a writer schema.
+	 * @param schema the schema
+	 * @return the fingerprint of the schema
+	 */
+	long addSchema(Schema schema) {
+		long fingerprint = SchemaNormalization.parsingFingerprint64(schema);
+		this.schemas.put(fingerprint, new AvroSchema(schema));
+		return fingerprint;
+	}
+
+	@Override
+	public boolean supports(MimeType contentType) {
+		return AVRO.includes(contentType) || AVRO_SUFFIX.includes(contentType);
+	}
+
+	@Override
+	public PdxInstance convert(byte[] payload, int offset, int length) {
+		if (length < HEADER_LENGTH || payload[offset] != (byte) 0xC3 || payload[offset + 1] != 0x01) {
+			throw new MessageConversionException("Avro payloads must use the single object encoding");
+		}
+		long fingerprint = 0;
+		for (int i = HEADER_LENGTH - 1; i > 1; i--) {
+			fingerprint = (fingerprint << 8) | (payload[offset + i] & 0xFF);
+		}
+		AvroSchema schema = this.schemas.get(fingerprint);
+		if (schema == null) {
+			throw new MessageConversionException(
+					"No Avro schema is registered with fingerprint " + Long.toHexString(fingerprint));
+		}
+		try (AvroParser parser = this.avroFactory.createParser(payload, offset + HEADER_LENGTH,
+				length - HEADER_LENGTH)) {
+			parser.setSchema(schema);
+			return this.reader.read(parser);
+		}
+		catch (IOException | MessageTransformationException e) {
+			throw new MessageConversionException(e.getMessage(), e);
+		}
+	}
+}
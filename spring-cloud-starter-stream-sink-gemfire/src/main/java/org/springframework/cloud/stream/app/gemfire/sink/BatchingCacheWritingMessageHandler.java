@@ -0,0 +1,248 @@
+/*
+ * Copyright 2019 the original author or authors.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.gemfire.sink;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.geode.cache.Region;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.expression.Expression;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessagingException;
+import org.springframework.util.Assert;
+
+/**
+ * A {@link org.springframework.messaging.MessageHandler} that collects cache entries and writes them to the region
+ * with a single {@link Region#putAll(Map)}. A batch is written when it reaches the configured size, when the batch
+ * timeout expires, or when an entry arrives whose key is already in the current batch, so that every update is
+ * applied in the order it was received.
+ *
+ * When coalescing is enabled, an entry whose key is already in the current batch replaces the pending value instead
+ * (last write wins), so that only the latest value of each key received within the batch timeout is written. The
+ * superseded messages are reported together with the batch if it fails.
+ *
+ * Tombstones in a batch are removed from the region with a single {@link Region#removeAll(java.util.Collection)}
+ * before the remaining entries are written. Since a key appears at most once in a batch, the order of puts and
+ * removes for each key is preserved.
+ *
+ * The binder has acknowledged a message by the time its batch is written, so a batch that fails to be written cannot
+ * be redelivered. With {@link DeadLetters} set, every message of a failed batch is sent to the error channel, whether
+ * the batch was written by the calling thread, by the timeout on the task scheduler or on shutdown. Without them, a
+ * failure is thrown to whoever wrote the batch. The write-behind journal drainer relies on this to retry, and disables
+ * the timeout (a batch timeout of 0) so that batches are only written by its own thread, before it commits the
+ * journal.
+ */
+class BatchingCacheWritingMessageHandler extends AbstractRegionWritingMessageHandler implements DisposableBean {
+
+	private final int batchSize;
+
+	private final long batchTimeout;
+
+	private final Lock lock = new ReentrantLock();
+
+	private boolean coalesce;
+
+	private DeadLetters deadLetters;
+
+	private Map<Object, Object> entries = new LinkedHashMap<>();
+
+	private List<Message<?>> messages = new ArrayList<>();
+
+	private ScheduledFuture<?> timeoutTask;
+
+	private long batchSequence;
+
+	BatchingCacheWritingMessageHandler(Region<?, ?> region, Expression keyExpression, int batchSize,
+			long batchTimeout) {
+		super(region, keyExpression);
+		Assert.isTrue(batchSize > 0, "'batchSize' must be greater than 0");
+		Assert.isTrue(batchTimeout >= 0, "'batchTimeout' must not be negative");
+		this.batchSize = batchSize;
+		this.batchTimeout = batchTimeout;
+	}
+
+	/**
+	 * Keep only the latest value for each key in a batch rather than writing a batch each time a key repeats.
+	 * @param coalesce true to coalesce updates to the same key
+	 */
+	void setCoalesce(boolean coalesce) {
+		this.coalesce = coalesce;
+	}
+
+	/**
+	 * Send the messages of a failed batch to the error channel instead of throwing the failure.
+	 * @param deadLetters the dead letters, or null to throw
+	 */
+	void setDeadLetters(DeadLetters deadLetters) {
+		this.deadLetters = deadLetters;
+	}
+
+	@Override
+	public String getComponentType() {
+		return "gemfire:batching-outbound-channel-adapter";
+	}
+
+	@Override
+	protected void handleMessageInternal(Message<?> message) {
+		add(entries(message), message);
+	}
+
+	@Override
+	protected void handleMessageInternal(Object key, Message<?> message) {
+		add(entries(key, message), message);
+	}
+
+	private void add(Map<Object, Object> messageEntries, Message<?> message) {
+		if (messageEntries.isEmpty()) {
+			return;
+		}
+		this.lock.lock();
+		try {
+			if (!this.coalesce && !Collections.disjoint(this.entries.keySet(), messageEntries.keySet())) {
+				flush();
+			}
+			boolean empty = this.entries.isEmpty();
+			this.entries.putAll(messageEntries);
+			this.messages.add(message);
+			if (this.entries.size() >= this.batchSize) {
+				flush();
+			}
+			else if (empty && this.batchTimeout > 0) {
+				scheduleTimeout();
+			}
+		}
+		finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * The cache entries written for a message. All the entries of a message are written in the same batch.
+	 * @param message the message
+	 * @return the entries, by default the evaluated key and the payload
+	 */
+	protected Map<Object, Object> entries(Message<?> message) {
+		return entries(evaluateKey(message), message);
+	}
+
+	/**
+	 * The cache entries written for a message whose key has already been evaluated.
+	 * @param key the evaluated key
+	 * @param message the message
+	 * @return the entries, by default the key and the payload
+	 */
+	protected Map<Object, Object> entries(Object key, Message<?> message) {
+		return Collections.singletonMap(key, message.getPayload());
+	}
+
+	/**
+	 * Write the current batch, if any, to the region.
+	 */
+	void flush() {
+		this.lock.lock();
+		try {
+			if (this.entries.isEmpty()) {
+				return;
+			}
+			Map<Object, Object> batch = this.entries;
+			List<Message<?>> batchMessages = this.messages;
+			this.entries = new LinkedHashMap<>();
+			this.messages = new ArrayList<>();
+			this.batchSequence++;
+			if (this.timeoutTask != null) {
+				this.timeoutTask.cancel(false);
+				this.timeoutTask = null;
+			}
+			write(batch, batchMessages);
+		}
+		finally {
+			this.lock.unlock();
+		}
+	}
+
+	private void write(Map<Object, Object> batch, List<Message<?>> batchMessages) {
+		try {
+			writeEntries(batch);
+		}
+		catch (RuntimeException e) {
+			MessagingException failure = new MessagingException(batchMessages.get(batchMessages.size() - 1),
+					"Failed to write a batch of " + batch.size() + " entries to region '"
+							+ getRegion().getName() + "'", e);
+			if (this.deadLetters == null) {
+				throw failure;
+			}
+			logger.error("Sending " + batchMessages.size() + " messages to the error channel", failure);
+			this.deadLetters.send(batchMessages, failure);
+		}
+	}
+
+	/**
+	 * Remove the tombstones of a batch from the region and write the remaining entries.
+	 * @param batch the entries, in the order they were received
+	 */
+	protected void writeEntries(Map<Object, Object> batch) {
+		List<Object> removedKeys = Tombstone.extract(batch);
+		if (!removedKeys.isEmpty()) {
+			getRegion().removeAll(removedKeys);
+		}
+		if (!batch.isEmpty()) {
+			writeBatch(batch);
+		}
+	}
+
+	/**
+	 * Write a batch of entries to the region.
+	 * @param batch the entries, in the order they were received, without tombstones
+	 */
+	protected void writeBatch(Map<Object, Object> batch) {
+		getRegion().putAll(batch);
+	}
+
+	private void scheduleTimeout() {
+		final long sequence = this.batchSequence;
+		this.timeoutTask = getTaskScheduler().schedule(() -> flushOnTimeout(sequence),
+				new Date(System.currentTimeMillis() + this.batchTimeout));
+	}
+
+	private void flushOnTimeout(long sequence) {
+		this.lock.lock();
+		try {
+			if (sequence == this.batchSequence) {
+				flush();
+			}
+		}
+		catch (MessagingException e) {
+			logger.error("Batch timeout flush failed", e);
+		}
+		finally {
+			this.lock.unlock();
+		}
+	}
+
+	@Override
+	public void destroy() {
+		flush();
+	}
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2019 the original author or authors.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.gemfire.sink;
+
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.util.Assert;
+
+/**
+ * A count-based circuit breaker. The outcomes of the last {@code windowSize} calls are kept in a ring buffer; once at
+ * least {@code minimumCalls} have been recorded, the circuit opens when the percentage of failed calls or of slow
+ * calls reaches its threshold. While open, calls are not permitted. After the open duration the circuit becomes
+ * half-open and permits {@code halfOpenCalls} trial calls: it closes if their failure and slow call rates are below
+ * the thresholds, and opens again otherwise.
+ */
+class CircuitBreaker {
+
+	enum State {
+		CLOSED, OPEN, HALF_OPEN
+	}
+
+	private static final byte FAILED = 1;
+
+	private static final byte SLOW = 2;
+
+	private final int failureRateThreshold;
+
+	private final int slowCallRateThreshold;
+
+	private final long slowCallDurationNanos;
+
+	private final int minimumCalls;
+
+	private final long openDurationNanos;
+
+	private final int halfOpenCalls;
+
+	private final byte[] outcomes;
+
+	private int position;
+
+	private int calls;
+
+	private int failures;
+
+	private int slowCalls;
+
+	private int halfOpenPermits;
+
+	private long openUntil;
+
+	private volatile State state = State.CLOSED;
+
+	/**
+	 * @param failureRateThreshold the percentage of failed calls that opens the circuit
+	 * @param slowCallRateThreshold the percentage of slow calls that opens the circuit
+	 * @param slowCallDuration the duration in milliseconds above which a call is slow
+	 * @param windowSize the number of most recent calls whose outcomes are considered
+	 * @param minimumCalls the minimum number of calls recorded before the rates are evaluated
+	 * @param openDuration the time in milliseconds the circuit stays open before permitting trial calls
+	 * @param halfOpenCalls the number of trial calls permitted while half-open
+	 */
+	CircuitBreaker(int failureRateThreshold, int slowCallRateThreshold, long slowCallDuration, int windowSize,
+			int minimumCalls, long openDuration, int halfOpenCalls) {
+		Assert.isTrue(windowSize > 0, "'windowSize' must be greater than 0");
+		Assert.isTrue(minimumCalls > 0 && minimumCalls <= windowSize,
+				"'minimumCalls' must be greater than 0 and not greater than 'windowSize'");
+		Assert.isTrue(halfOpenCalls > 0 && halfOpenCalls <= windowSize,
+				"'halfOpenCalls' must be greater than 0 and not greater than 'windowSize'");
+		Assert.isTrue(failureRateThreshold > 0 && slowCallRateThreshold > 0, "Rate thresholds must be greater than 0");
+		this.failureRateThreshold = failureRateThreshold;
+		this.slowCallRateThreshold = slowCallRateThreshold;
+		this.slowCallDurationNanos = TimeUnit.MILLISECONDS.toNanos(slowCallDuration);
+		this.minimumCalls = minimumCalls;
+		this.openDurationNanos = TimeUnit.MILLISECONDS.toNanos(openDuration);
+		this.halfOpenCalls = halfOpenCalls;
+		this.outcomes = new byte[windowSize];
+	}
+
+	State getState() {
+		return this.state;
+	}
+
+	/**
+	 * Acquire permission for a call.
+	 * @return true if the call is permitted, false if the circuit is open or all trial calls have been permitted
+	 */
+	synchronized boolean tryAcquirePermission() {
+		if (this.state == State.OPEN) {
+			if (System.nanoTime() - this.openUntil < 0) {
+				return false;
+			}
+			transitionTo(State.HALF_OPEN);
+		}
+		if (this.state == State.HALF_OPEN) {
+			if (this.halfOpenPermits == 0) {
+				return false;
+			}
+			this.halfOpenPermits--;
+		}
+		return true;
+	}
+
+	/**
+	 * Release the permission of a call whose outcome is not recorded, so that a trial call is permitted in its place.
+	 */
+	synchronized void releasePermission() {
+		if (this.state == State.HALF_OPEN && this.halfOpenPermits < this.halfOpenCalls) {
+			this.halfOpenPermits++;
+		}
+	}
+
+	/**
+	 * Record the outcome of a permitted call.
+	 * @param durationNanos the duration of the call
+	 * @param failed whether the call failed
+	 */
+	synchronized void onResult(long durationNanos, boolean failed) {
+		if (this.state == State.OPEN) {
+			return;
+		}
+		byte outcome = (byte) ((failed ? FAILED : 0) | (durationNanos >= this.slowCallDurationNanos ? SLOW : 0));
+		if (this.calls == this.outcomes.length) {
+			byte evicted = this.outcomes[this.position];
+			this.failures -= evicted & FAILED;
+			this.slowCalls -= (evicted & SLOW) >> 1;
+		}
+		else {
+			this.calls++;
+		}
+		this.outcomes[this.position] = outcome;
+		this.position = (this.position + 1) % this.outcomes.length;
+		this.failures += outcome & FAILED;
+		this.slowCalls += (outcome & SLOW) >> 1;
+		if (this.state == State.HALF_OPEN) {
+			if (this.calls >= this.halfOpenCalls) {
+				transitionTo(exceedsThresholds() ? State.OPEN : State.CLOSED);
+			}
+		}
+		else if (this.calls >= this.minimumCalls && exceedsThresholds()) {
+			transitionTo(State.OPEN);
+		}
+	}
+
+	private boolean exceedsThresholds() {
+		return this.failures * 100 >= this.failureRateThreshold * this.calls
+				|| this.slowCalls * 100 >= this.slowCallRateThreshold * this.calls;
+	}
+
+	private void transitionTo(State state) {
+		this.state = state;
+		this.position = 0;
+		this.calls = 0;
+		this.failures = 0;
+		this.slowCalls = 0;
+		if (state == State.OPEN) {
+			this.openUntil = System.nanoTime() + this.openDurationNanos;
+		}
+		else if (state == State.HALF_OPEN) {
+			this.halfOpenPermits = this.halfOpenCalls;
+		}
+	}
+}
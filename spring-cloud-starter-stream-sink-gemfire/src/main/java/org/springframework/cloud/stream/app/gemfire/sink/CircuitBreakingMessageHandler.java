@@ -0,0 +1,108 @@
+/*
+ * Copyright 2019 the original author or authors.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.gemfire.sink;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.integration.handler.AbstractMessageHandler;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.MessageHandlingException;
+import org.springframework.util.Assert;
+
+/**
+ * Guards a region writer with a {@link CircuitBreaker}. Each write is timed and its outcome recorded; while the
+ * circuit is open, messages are rejected at once with a {@link CircuitOpenException} instead of waiting for the pool
+ * timeouts, so the binder can retry them later or route them to its dead letter queue. Only failures to reach the
+ * cluster, as told by {@link ConnectivityFailures}, count as failed writes: other failures, such as a key expression
+ * that fails or an exception thrown by the server, are the message's own and are rethrown without being recorded, so
+ * that a burst of malformed messages does not cut the sink off from a healthy cluster.
+ *
+ * Rejected messages are counted by the {@code gemfire.sink.circuit.rejected} counter, and the state of the circuit
+ * (0 closed, 1 open, 2 half-open) is published as the {@code gemfire.sink.circuit.state} gauge.
+ */
+class CircuitBreakingMessageHandler extends AbstractMessageHandler implements DisposableBean {
+
+	private final MessageHandler delegate;
+
+	private final CircuitBreaker circuitBreaker;
+
+	private final Counter rejected;
+
+	CircuitBreakingMessageHandler(MessageHandler delegate, CircuitBreaker circuitBreaker,
+			MeterRegistry meterRegistry) {
+		Assert.notNull(delegate, "'delegate' must not be null");
+		Assert.notNull(circuitBreaker, "'circuitBreaker' must not be null");
+		this.delegate = delegate;
+		this.circuitBreaker = circuitBreaker;
+		meterRegistry.gauge("gemfire.sink.circuit.state", circuitBreaker, breaker -> breaker.getState().ordinal());
+		this.rejected = Counter.builder("gemfire.sink.circuit.rejected")
+				.description("Number of messages rejected because the circuit around region writes is open")
+				.register(meterRegistry);
+	}
+
+	@Override
+	public String getComponentType() {
+		return "gemfire:circuit-breaking-outbound-channel-adapter";
+	}
+
+	@Override
+	protected void onInit() {
+		super.onInit();
+		MessageHandlers.initialize(this.delegate, getBeanFactory());
+	}
+
+	@Override
+	protected void handleMessageInternal(Message<?> message) {
+		if (!this.circuitBreaker.tryAcquirePermission()) {
+			this.rejected.increment();
+			throw new CircuitOpenException(message, "The circuit around region writes is "
+					+ this.circuitBreaker.getState().name().toLowerCase().replace('_', '-'));
+		}
+		long start = System.nanoTime();
+		try {
+			this.delegate.handleMessage(message);
+		}
+		catch (RuntimeException | Error e) {
+			if (ConnectivityFailures.isConnectivityFailure(e)) {
+				this.circuitBreaker.onResult(System.nanoTime() - start, true);
+			}
+			else {
+				this.circuitBreaker.releasePermission();
+			}
+			throw e;
+		}
+		this.circuitBreaker.onResult(System.nanoTime() - start, false);
+	}
+
+	@Override
+	public void destroy() throws Exception {
+		MessageHandlers.destroy(this.delegate);
+	}
+
+	/**
+	 * Thrown for a message rejected because the circuit is open; a connectivity failure, since the cluster was found
+	 * unhealthy.
+	 */
+	static class CircuitOpenException extends MessageHandlingException {
+
+		CircuitOpenException(Message<?> message, String description) {
+			super(message, description);
+		}
+	}
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2019 the original author or authors.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.gemfire.sink;
+
+import org.apache.geode.CancelException;
+import org.apache.geode.cache.client.ServerConnectivityException;
+import org.apache.geode.cache.client.ServerOperationException;
+
+/**
+ * Tells failures to reach the cluster, which go away once the servers are available again, from failures to write a
+ * particular message, which recur every time it is written. A {@link ServerConnectivityException}, which includes
+ * {@link org.apache.geode.cache.client.NoAvailableServersException}, or a {@link CancelException} of the client cache
+ * anywhere in the cause chain is a connectivity failure, except for a {@link ServerOperationException}, which
+ * reports an exception thrown by the server while applying the operation. So is a message rejected by an open
+ * circuit breaker.
+ */
+final class ConnectivityFailures {
+
+	private ConnectivityFailures() {
+	}
+
+	static boolean isConnectivityFailure(Throwable failure) {
+		for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+			if (cause instanceof ServerOperationException) {
+				return false;
+			}
+			if (cause instanceof ServerConnectivityException || cause instanceof CancelException
+					|| cause instanceof CircuitBreakingMessageHandler.CircuitOpenException) {
+				return true;
+			}
+			if (cause.getCause() == cause) {
+				break;
+			}
+		}
+		return false;
+	}
+}
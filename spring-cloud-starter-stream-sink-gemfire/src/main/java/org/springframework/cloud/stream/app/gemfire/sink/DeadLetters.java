@@ -0,0 +1,131 @@
+/*
+ * Copyright 2019 the original author or authors.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.gemfire.sink;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.integration.IntegrationMessageHeaderAccessor;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHandlingException;
+import org.springframework.messaging.MessagingException;
+import org.springframework.messaging.support.ErrorMessage;
+import org.springframework.util.Assert;
+import org.springframework.util.ClassUtils;
+
+/**
+ * Reports messages whose write failed after the handler had returned, as happens in the batching, asynchronous and
+ * key-striped write modes. The sink is message driven, so the binder has already acknowledged such a message and
+ * will not retry it. Each failed message is therefore sent as an {@link ErrorMessage} to an error channel, normally
+ * the error channel of the input binding, where the binder's dead-letter handler and any application handler
+ * subscribed to that channel receive it.
+ *
+ * The error message carries the headers of the failed message. The dead-letter handlers of the Kafka and RabbitMQ
+ * binders republish the record the binder received, which they read from a header of their own; when the binder has
+ * bound that record to the message as its {@code sourceData} header, it is also set under the header of the
+ * binder. An error message without the record is only logged by those handlers.
+ *
+ * Failed messages are counted by the {@code gemfire.sink.writes.failed} counter.
+ */
+class DeadLetters {
+
+	private static final Log logger = LogFactory.getLog(DeadLetters.class);
+
+	/**
+	 * The headers the binders' dead-letter handlers read the received record from, by the class of the record.
+	 */
+	private static final Map<String, String> RAW_RECORD_HEADERS = new LinkedHashMap<>();
+
+	static {
+		RAW_RECORD_HEADERS.put("org.apache.kafka.clients.consumer.ConsumerRecord", "kafka_data");
+		RAW_RECORD_HEADERS.put("org.springframework.amqp.core.Message", "amqp_raw_message");
+	}
+
+	private final Map<Class<?>, String> rawRecordHeaders = new LinkedHashMap<>();
+
+	private final Supplier<MessageChannel> errorChannel;
+
+	private final Counter failed;
+
+	/**
+	 * @param errorChannel supplies the channel failed messages are sent to; it is resolved on each failure, since the
+	 * binding error channels are only created when the bindings start
+	 * @param meterRegistry the registry for the failure counter
+	 */
+	DeadLetters(Supplier<MessageChannel> errorChannel, MeterRegistry meterRegistry) {
+		Assert.notNull(errorChannel, "'errorChannel' must not be null");
+		this.errorChannel = errorChannel;
+		this.failed = Counter.builder("gemfire.sink.writes.failed")
+				.description("Number of messages sent to the error channel because their write failed")
+				.register(meterRegistry);
+		ClassLoader classLoader = DeadLetters.class.getClassLoader();
+		RAW_RECORD_HEADERS.forEach((className, header) -> {
+			if (ClassUtils.isPresent(className, classLoader)) {
+				this.rawRecordHeaders.put(ClassUtils.resolveClassName(className, classLoader), header);
+			}
+		});
+	}
+
+	/**
+	 * @param message a message whose write failed
+	 * @param cause the failure
+	 */
+	void send(Message<?> message, Throwable cause) {
+		this.failed.increment();
+		MessagingException exception = cause instanceof MessagingException
+				&& ((MessagingException) cause).getFailedMessage() == message
+				? (MessagingException) cause
+				: new MessageHandlingException(message, "Failed to write message to the region", cause);
+		try {
+			this.errorChannel.get().send(new ErrorMessage(exception, errorHeaders(message), message));
+		}
+		catch (RuntimeException e) {
+			logger.error("Failed to send a failed write to the error channel; the message is lost: " + message,
+					exception);
+		}
+	}
+
+	private Map<String, Object> errorHeaders(Message<?> message) {
+		Map<String, Object> headers = new HashMap<>(message.getHeaders());
+		Object sourceData = message.getHeaders().get(IntegrationMessageHeaderAccessor.SOURCE_DATA);
+		if (sourceData != null) {
+			this.rawRecordHeaders.forEach((type, header) -> {
+				if (type.isInstance(sourceData)) {
+					headers.putIfAbsent(header, sourceData);
+				}
+			});
+		}
+		return headers;
+	}
+
+	/**
+	 * @param messages messages whose write failed together, such as those of a batch
+	 * @param cause the failure
+	 */
+	void send(Iterable<Message<?>> messages, Throwable cause) {
+		for (Message<?> message : messages) {
+			send(message, cause);
+		}
+	}
+}
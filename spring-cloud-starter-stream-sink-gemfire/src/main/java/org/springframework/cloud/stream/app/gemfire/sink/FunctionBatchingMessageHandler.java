@@ -0,0 +1,97 @@
+/*
+ * Copyright 2019 the original author or authors.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.gemfire.sink;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.geode.cache.Region;
+import org.apache.geode.cache.execute.FunctionService;
+
+import org.springframework.expression.Expression;
+import org.springframework.util.Assert;
+
+/**
+ * A {@link BatchingCacheWritingMessageHandler} that ships each batch to a function registered on the servers instead
+ * of writing it with {@link Region#putAll(Map)}. The arguments of a function execution are sent whole to every member
+ * it runs on, so the batch is first split by member: the {@code gemfire-sink-local-keys} function, executed with the
+ * batch keys as its filter, returns the keys each member hosts, and the function is then executed once per member,
+ * with that member's keys as its filter and only their entries as its arguments. Only the keys are sent twice. The
+ * {@code gemfire-sink-bulk-put} function in the {@code gemfire-app-starters-server-functions} jar applies the entries
+ * with a local putAll on each member.
+ */
+class FunctionBatchingMessageHandler extends BatchingCacheWritingMessageHandler {
+
+	private static final String LOCAL_KEYS_FUNCTION_ID = "gemfire-sink-local-keys";
+
+	private final String functionId;
+
+	FunctionBatchingMessageHandler(Region<?, ?> region, Expression keyExpression, int batchSize, long batchTimeout,
+			String functionId) {
+		super(region, keyExpression, batchSize, batchTimeout);
+		Assert.hasText(functionId, "'functionId' must not be empty");
+		this.functionId = functionId;
+	}
+
+	@Override
+	public String getComponentType() {
+		return "gemfire:function-outbound-channel-adapter";
+	}
+
+	@Override
+	protected void writeBatch(Map<Object, Object> batch) {
+		for (Map<Object, Object> entries : groupByMember(batch)) {
+			// wait for the function to complete on the member, propagating any FunctionException
+			FunctionService.onRegion(getRegion())
+					.withFilter(entries.keySet())
+					.setArguments(entries)
+					.execute(this.functionId)
+					.getResult();
+		}
+	}
+
+	/**
+	 * Split a batch into the entries of each member. Keys that no member reports, as may happen while buckets are
+	 * moved, are sent together last and routed by the servers.
+	 */
+	@SuppressWarnings("unchecked")
+	private List<Map<Object, Object>> groupByMember(Map<Object, Object> batch) {
+		List<Object> memberKeys = (List<Object>) FunctionService.onRegion(getRegion())
+				.withFilter(batch.keySet())
+				.execute(LOCAL_KEYS_FUNCTION_ID)
+				.getResult();
+		Map<Object, Object> remaining = new LinkedHashMap<>(batch);
+		List<Map<Object, Object>> groups = new ArrayList<>(memberKeys.size() + 1);
+		for (Object keys : memberKeys) {
+			Map<Object, Object> group = new LinkedHashMap<>();
+			for (Object key : (Collection<?>) keys) {
+				if (remaining.containsKey(key)) {
+					group.put(key, remaining.remove(key));
+				}
+			}
+			if (!group.isEmpty()) {
+				groups.add(group);
+			}
+		}
+		if (!remaining.isEmpty()) {
+			groups.add(remaining);
+		}
+		return groups;
+	}
+}
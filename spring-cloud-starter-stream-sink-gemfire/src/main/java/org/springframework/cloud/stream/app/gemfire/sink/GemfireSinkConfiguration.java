@@ -15,22 +15,52 @@
 
 package org.springframework.cloud.stream.app.gemfire.sink;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
 import javax.annotation.Resource;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.dataformat.avro.AvroFactory;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import org.apache.avro.Schema;
+import org.apache.geode.cache.GemFireCache;
 import org.apache.geode.cache.Region;
+import org.apache.geode.cache.client.ClientCache;
+import org.msgpack.jackson.dataformat.MessagePackFactory;
 
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.cloud.stream.annotation.EnableBinding;
+import org.springframework.cloud.stream.app.gemfire.JsonObjectTransformer;
+import org.springframework.cloud.stream.app.gemfire.JsonPdxInstanceReader;
 import org.springframework.cloud.stream.app.gemfire.config.GemfireClientRegionConfiguration;
 import org.springframework.cloud.stream.app.gemfire.config.GemfirePoolConfiguration;
+import org.springframework.cloud.stream.config.BindingServiceProperties;
 import org.springframework.cloud.stream.messaging.Sink;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Import;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.core.io.support.ResourcePatternResolver;
+import org.springframework.core.io.support.ResourcePatternUtils;
+import org.springframework.expression.Expression;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
 import org.springframework.integration.annotation.ServiceActivator;
+import org.springframework.integration.context.IntegrationContextUtils;
 import org.springframework.integration.gemfire.outbound.CacheWritingMessageHandler;
+import org.springframework.messaging.MessageChannel;
 import org.springframework.messaging.MessageHandler;
+import org.springframework.util.MimeType;
+import org.springframework.util.StringUtils;
 
 /**
  * @author David Turanski
@@ -43,24 +73,270 @@ import org.springframework.messaging.MessageHandler;
 @EnableConfigurationProperties(GemfireSinkProperties.class)
 public class GemfireSinkConfiguration {
 
+	private static final SpelExpressionParser EXPRESSION_PARSER = new SpelExpressionParser();
+
+	private static final String JSON_MERGE_PATCH_FUNCTION_ID = "gemfire-sink-json-merge-patch";
+
+	private static final int JOURNAL_READ_SIZE = 100;
+
+
 	@Autowired
 	private GemfireSinkProperties config;
 
 	@Resource(name = "clientRegion")
 	private Region<String, ?> region;
 
+	@Autowired
+	private ObjectProvider<MeterRegistry> meterRegistryProvider;
+
+	@Autowired
+	private ResourceLoader resourceLoader;
+
+	@Autowired
+	private BeanFactory beanFactory;
+
+	@Autowired
+	private ObjectProvider<BindingServiceProperties> bindingServiceProperties;
+
+	private DeadLetters deadLetters;
+
 	@ServiceActivator(inputChannel = Sink.INPUT)
 	@Bean
-	public GemfireSinkHandler gemfireSinkHandler() {
-		return new GemfireSinkHandler(messageHandler(),config.isJson());
+	public GemfireSinkHandler gemfireSinkHandler(ObjectProvider<WriteBehindJournal> writeBehindJournal,
+			ObjectProvider<PdxInstanceConverter> pdxInstanceConverters) throws IOException {
+		GemfireSinkHandler gemfireSinkHandler = new GemfireSinkHandler(messageHandler(), config.isJson(),
+				new JsonObjectTransformer(configure("json", new JsonPdxInstanceReader())));
+		gemfireSinkHandler.setRaw(this.config.isRaw());
+		gemfireSinkHandler.setMergePatch(this.config.isMergePatch());
+		gemfireSinkHandler.setFanOut(this.config.isTransactional());
+		if (this.config.isJson()) {
+			gemfireSinkHandler.setConverters(pdxInstanceConverters(pdxInstanceConverters));
+		}
+		if (StringUtils.hasText(this.config.getDeleteExpression())) {
+			gemfireSinkHandler.setDeleteExpression(EXPRESSION_PARSER.parseExpression(this.config.getDeleteExpression()));
+		}
+		if (StringUtils.hasText(this.config.getTtlExpression())) {
+			gemfireSinkHandler.setExpiration(EXPRESSION_PARSER.parseExpression(this.config.getTtlExpression()),
+					this.config.getExpirationField());
+		}
+		if (StringUtils.hasText(this.config.getRecordKeyExpression())) {
+			gemfireSinkHandler.setRecords(EXPRESSION_PARSER.parseExpression(this.config.getRecordKeyExpression()),
+					this.config.getRecordChunkSize());
+		}
+		if (this.config.getCompressionThreshold() > 0) {
+			gemfireSinkHandler.setCompressor(
+					new PayloadCompressor(this.config.getCompressionThreshold(), meterRegistry()));
+		}
+		writeBehindJournal.ifAvailable(gemfireSinkHandler::setJournal);
+		if (StringUtils.hasText(this.config.getIdempotencyKeyExpression())) {
+			gemfireSinkHandler.setIdempotencyCache(
+					EXPRESSION_PARSER.parseExpression(this.config.getIdempotencyKeyExpression()),
+					new IdempotencyCache(this.config.getIdempotencyCacheSize(), this.config.getIdempotencyWindow(),
+							meterRegistry()));
+		}
+		return gemfireSinkHandler;
+	}
+
+	@Bean(destroyMethod = "close")
+	@ConditionalOnProperty(prefix = "gemfire.sink", name = "journal-directory")
+	public WriteBehindJournal writeBehindJournal() throws IOException {
+		int maxSegments = (int) Math.min(Integer.MAX_VALUE,
+				this.config.getJournalMaxSize() / this.config.getJournalSegmentSize());
+		WriteBehindJournal journal = new WriteBehindJournal(new File(this.config.getJournalDirectory()),
+				this.config.getJournalSegmentSize(), maxSegments, meterRegistry());
+		journal.open();
+		return journal;
+	}
+
+	@Bean
+	@ConditionalOnProperty(prefix = "gemfire.sink", name = "journal-directory")
+	public WriteBehindJournalDrainer writeBehindJournalDrainer(WriteBehindJournal writeBehindJournal,
+			GemfireSinkHandler gemfireSinkHandler) {
+		// a circuit breaker is only used with writers that have nothing to flush
+		MessageHandler messageHandler = messageHandler();
+		Runnable flush = () -> { };
+		if (messageHandler instanceof BatchingCacheWritingMessageHandler) {
+			flush = ((BatchingCacheWritingMessageHandler) messageHandler)::flush;
+		}
+		else if (messageHandler instanceof RegionRoutingMessageHandler) {
+			flush = ((RegionRoutingMessageHandler) messageHandler)::flush;
+		}
+		return new WriteBehindJournalDrainer(writeBehindJournal, gemfireSinkHandler::write, flush,
+				Math.max(this.config.getBatchSize(), JOURNAL_READ_SIZE), this.config.getJournalRetryInterval());
 	}
 
 	@Bean
 	public MessageHandler messageHandler() {
+		if (this.config.getLanes() > 0) {
+			KeyStripedMessageHandler messageHandler = new KeyStripedMessageHandler(keyExpression(),
+					this.config.getLanes(), this.config.getLaneQueueCapacity(), this::regionWriter, meterRegistry());
+			messageHandler.setDeadLetters(deadLetters());
+			return messageHandler;
+		}
+		if (this.config.getMaxInFlight() > 0) {
+			AsyncCacheWritingMessageHandler messageHandler = new AsyncCacheWritingMessageHandler(this.region,
+					keyExpression(), this.config.getMaxInFlight());
+			messageHandler.setDeadLetters(deadLetters());
+			return messageHandler;
+		}
+		MessageHandler regionWriter = regionWriter();
+		// the breaker times each write on the calling thread, so it only guards the synchronous writers
+		return this.config.isCircuitBreakerEnabled()
+				? new CircuitBreakingMessageHandler(regionWriter, circuitBreaker(), meterRegistry())
+				: regionWriter;
+	}
+
+	private MessageHandler regionWriter() {
+		if (StringUtils.hasText(this.config.getRegionExpression())) {
+			ClientCache clientCache = (ClientCache) this.region.getRegionService();
+			return new RegionRoutingMessageHandler(EXPRESSION_PARSER.parseExpression(this.config.getRegionExpression()),
+					clientCache, poolName(clientCache), this::regionWriter, this.config.getRegionCacheSize(),
+					meterRegistry());
+		}
+		return regionWriter(this.region);
+	}
+
+	/**
+	 * The pool of the region bean, on which the regions of the region expression are created. The client cache is
+	 * configured from the {@code gemfirePool} bean, but creates its default pool under the name {@code DEFAULT}.
+	 */
+	private String poolName(ClientCache clientCache) {
+		String poolName = this.region.getAttributes().getPoolName();
+		return StringUtils.hasText(poolName) ? poolName : clientCache.getDefaultPool().getName();
+	}
+
+	private MessageHandler regionWriter(Region<String, ?> region) {
+		if (StringUtils.hasText(this.config.getRecordKeyExpression())) {
+			SynchronousCacheWritingMessageHandler messageHandler = new SynchronousCacheWritingMessageHandler(region,
+					keyExpression());
+			messageHandler.setFanOut(true);
+			return messageHandler;
+		}
+		if (isBatching()) {
+			String functionId = this.config.isMergePatch() ? JSON_MERGE_PATCH_FUNCTION_ID : this.config.getFunctionId();
+			BatchingCacheWritingMessageHandler messageHandler;
+			if (StringUtils.hasText(functionId)) {
+				messageHandler = new FunctionBatchingMessageHandler(region, keyExpression(),
+						this.config.getBatchSize(), batchTimeout(), functionId);
+			}
+			else if (this.config.isTransactional()) {
+				messageHandler = new TransactionalCacheWritingMessageHandler(region, keyExpression(),
+						this.config.getBatchSize(), batchTimeout(),
+						((GemFireCache) region.getRegionService()).getCacheTransactionManager(),
+						this.config.getTransactionMaxRetries(), meterRegistry());
+			}
+			else {
+				messageHandler = new BatchingCacheWritingMessageHandler(region, keyExpression(),
+						this.config.getBatchSize(), batchTimeout());
+			}
+			messageHandler.setCoalesce(this.config.isCoalesce());
+			if (!StringUtils.hasText(this.config.getJournalDirectory())) {
+				// the journal drainer retries failed batches itself
+				messageHandler.setDeadLetters(deadLetters());
+			}
+			return messageHandler;
+		}
+		if (StringUtils.hasText(this.config.getVersionExpression())) {
+			return new VersionGuardedMessageHandler(region, keyExpression(),
+					EXPRESSION_PARSER.parseExpression(this.config.getVersionExpression()), meterRegistry());
+		}
+		if (StringUtils.hasText(this.config.getDeleteExpression()) || this.config.isRaw()
+				|| this.config.getLanes() > 0) {
+			return new SynchronousCacheWritingMessageHandler(region, keyExpression());
+		}
 		CacheWritingMessageHandler messageHandler = new CacheWritingMessageHandler(
-				this.region);
+				region);
 		messageHandler.setCacheEntries(
 				Collections.singletonMap(this.config.getKeyExpression(), "payload"));
 		return messageHandler;
 	}
-}
\ No newline at end of file
+
+	private CircuitBreaker circuitBreaker() {
+		return new CircuitBreaker(this.config.getCircuitBreakerFailureRateThreshold(),
+				this.config.getCircuitBreakerSlowCallRateThreshold(), this.config.getCircuitBreakerSlowCallDuration(),
+				this.config.getCircuitBreakerWindowSize(), this.config.getCircuitBreakerMinimumCalls(),
+				this.config.getCircuitBreakerOpenDuration(), this.config.getCircuitBreakerHalfOpenCalls());
+	}
+
+	/**
+	 * The batch timeout, disabled in journal mode so that batches are only written by the journal drainer, which
+	 * commits the journal once they have been written.
+	 */
+	private long batchTimeout() {
+		return StringUtils.hasText(this.config.getJournalDirectory()) ? 0 : this.config.getBatchTimeout();
+	}
+
+	private DeadLetters deadLetters() {
+		if (this.deadLetters == null) {
+			this.deadLetters = new DeadLetters(this::errorChannel, meterRegistry());
+		}
+		return this.deadLetters;
+	}
+
+	/**
+	 * The error channel of the input binding, where the binder's dead-letter handling is subscribed, if the binding
+	 * has a consumer group; otherwise the global error channel.
+	 */
+	private MessageChannel errorChannel() {
+		BindingServiceProperties bindings = this.bindingServiceProperties.getIfAvailable();
+		if (bindings != null) {
+			String group = bindings.getBindingProperties(Sink.INPUT).getGroup();
+			String errorChannelName = bindings.getBindingDestination(Sink.INPUT) + "." + group + ".errors";
+			if (StringUtils.hasText(group) && this.beanFactory.containsBean(errorChannelName)) {
+				return this.beanFactory.getBean(errorChannelName, MessageChannel.class);
+			}
+		}
+		return this.beanFactory.getBean(IntegrationContextUtils.ERROR_CHANNEL_BEAN_NAME, MessageChannel.class);
+	}
+
+	private boolean isBatching() {
+		return this.config.getBatchSize() > 1 || StringUtils.hasText(this.config.getFunctionId())
+				|| this.config.isMergePatch() || this.config.isTransactional();
+	}
+
+	private List<PdxInstanceConverter> pdxInstanceConverters(ObjectProvider<PdxInstanceConverter> custom)
+			throws IOException {
+		List<PdxInstanceConverter> converters = custom.orderedStream().collect(Collectors.toList());
+		converters.add(new JacksonPdxInstanceConverter(jsonPdxInstanceReader("cbor", new CBORFactory()),
+				new MimeType("application", "cbor")));
+		converters.add(new JacksonPdxInstanceConverter(jsonPdxInstanceReader("msgpack", new MessagePackFactory()),
+				new MimeType("application", "x-msgpack"), new MimeType("application", "msgpack")));
+		AvroPdxInstanceConverter avroConverter = new AvroPdxInstanceConverter(
+				jsonPdxInstanceReader("avro", new AvroFactory()));
+		Schema.Parser schemaParser = new Schema.Parser();
+		ResourcePatternResolver resolver = ResourcePatternUtils.getResourcePatternResolver(this.resourceLoader);
+		for (String location : this.config.getAvroSchemaLocations()) {
+			for (org.springframework.core.io.Resource resource : resolver.getResources(location)) {
+				try (InputStream schema = resource.getInputStream()) {
+					avroConverter.addSchema(schemaParser.parse(schema));
+				}
+			}
+		}
+		converters.add(avroConverter);
+		return converters;
+	}
+
+	private JsonPdxInstanceReader jsonPdxInstanceReader(String format, JsonFactory jsonFactory) {
+		return configure(format, new JsonPdxInstanceReader(jsonFactory));
+	}
+
+	private JsonPdxInstanceReader configure(String format, JsonPdxInstanceReader reader) {
+		reader.setCanonicalFieldOrder(this.config.isJsonCanonicalFieldOrder());
+		reader.setSchema(this.config.getJsonSchema());
+		if (this.config.isJson()) {
+			Gauge.builder("gemfire.sink.json.pdx.types", reader, JsonPdxInstanceReader::getPdxTypeCount)
+					.description("Number of distinct PDX types of the converted documents")
+					.tag("format", format)
+					.register(meterRegistry());
+		}
+		return reader;
+	}
+
+	private MeterRegistry meterRegistry() {
+		return this.meterRegistryProvider.getIfAvailable(() -> Metrics.globalRegistry);
+	}
+
+	private Expression keyExpression() {
+		return EXPRESSION_PARSER.parseExpression(this.config.getKeyExpression());
+	}
+}
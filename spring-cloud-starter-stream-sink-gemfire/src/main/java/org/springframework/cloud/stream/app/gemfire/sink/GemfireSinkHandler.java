@@ -15,47 +15,237 @@
 
 package org.springframework.cloud.stream.app.gemfire.sink;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
 import org.apache.geode.pdx.PdxInstance;
 
+import org.springframework.cloud.stream.app.gemfire.CompressionEnvelope;
 import org.springframework.cloud.stream.app.gemfire.JsonObjectTransformer;
+import org.springframework.cloud.stream.app.gemfire.JsonPdxInstances;
+import org.springframework.expression.EvaluationContext;
+import org.springframework.expression.Expression;
+import org.springframework.integration.expression.ExpressionUtils;
 import org.springframework.integration.support.MessageBuilder;
 import org.springframework.messaging.Message;
 import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.MessageHandlingException;
+import org.springframework.messaging.MessageHeaders;
 import org.springframework.messaging.converter.MessageConversionException;
+import org.springframework.util.MimeType;
+import org.springframework.util.MimeTypeUtils;
 
 /**
  * @author David Turanski
  * @author Christian Tzolov
  **/
 class GemfireSinkHandler {
+	private static final JsonFactory JSON_FACTORY = new JsonFactory();
 	private final MessageHandler messageHandler;
 	private final Boolean convertToJson;
-	private final JsonObjectTransformer transformer = new JsonObjectTransformer();
+	private final JsonObjectTransformer transformer;
+	private final EvaluationContext evaluationContext = ExpressionUtils.createStandardEvaluationContext();
+	private Expression deleteExpression;
+	private WriteBehindJournal journal;
+	private Expression idempotencyKeyExpression;
+	private IdempotencyCache idempotencyCache;
+	private List<PdxInstanceConverter> converters = Collections.emptyList();
+	private boolean raw;
+	private boolean mergePatch;
+	private Expression ttlExpression;
+	private String expirationField;
+	private PayloadCompressor compressor;
+	private boolean fanOut;
+	private Expression recordKeyExpression;
+	private int chunkSize;
 
-	GemfireSinkHandler(MessageHandler messageHandler, Boolean convertToJson) {
+	GemfireSinkHandler(MessageHandler messageHandler, Boolean convertToJson, JsonObjectTransformer transformer) {
 		this.messageHandler = messageHandler;
 		this.convertToJson = convertToJson;
+		this.transformer = transformer;
+	}
+
+	/**
+	 * @param deleteExpression the condition that marks a message as a tombstone, whose entry is removed from the
+	 * region. The payload of a tombstone is not converted.
+	 */
+	void setDeleteExpression(Expression deleteExpression) {
+		this.deleteExpression = deleteExpression;
+	}
+
+	/**
+	 * @param journal the journal that messages are appended to, to be written to the region by the
+	 * {@link WriteBehindJournalDrainer}
+	 */
+	void setJournal(WriteBehindJournal journal) {
+		this.journal = journal;
+	}
+
+	/**
+	 * @param idempotencyKeyExpression the expression evaluated against each message to obtain its id
+	 * @param idempotencyCache the ids written recently. Messages whose id is in the cache are dropped before they are
+	 * converted; the id of a message is recorded before it is written, and removed if the write fails.
+	 */
+	void setIdempotencyCache(Expression idempotencyKeyExpression, IdempotencyCache idempotencyCache) {
+		this.idempotencyKeyExpression = idempotencyKeyExpression;
+		this.idempotencyCache = idempotencyCache;
+	}
+
+	/**
+	 * @param converters the converters of binary payloads, selected by the content type of the message. Other
+	 * payloads are read as JSON.
+	 */
+	void setConverters(List<PdxInstanceConverter> converters) {
+		this.converters = converters;
+	}
+
+	/**
+	 * @param raw whether {@code byte[]} payloads are stored as they are. {@code ByteBuffer} payloads are stored as the
+	 * bytes they hold and other payloads are rejected.
+	 */
+	void setRaw(boolean raw) {
+		this.raw = raw;
+	}
+
+	/**
+	 * @param mergePatch whether payloads are JSON merge patches, which are sent to the merge patch function as JSON
+	 * rather than converted, so that they do not define PDX types. {@code String} and {@code byte[]} payloads are sent
+	 * as they are, {@code ByteBuffer} payloads as the bytes they hold, {@code Map} payloads, which the binder reads
+	 * JSON into for some content types, are written back as JSON, and other payloads are rejected.
+	 */
+	void setMergePatch(boolean mergePatch) {
+		this.mergePatch = mergePatch;
+	}
+
+	/**
+	 * @param ttlExpression the expression evaluated against each message to obtain the time to live of its entry, in
+	 * seconds. Documents whose time to live is positive are stamped with their expiration time.
+	 * @param expirationField the name of the field holding the expiration time, in milliseconds since the epoch
+	 */
+	void setExpiration(Expression ttlExpression, String expirationField) {
+		this.ttlExpression = ttlExpression;
+		this.expirationField = expirationField;
+	}
+
+	/**
+	 * @param compressor the compressor of large payloads, which are stored compressed instead of converted. Payloads
+	 * of a content type handled by a converter are always converted.
+	 */
+	void setCompressor(PayloadCompressor compressor) {
+		this.compressor = compressor;
+	}
+
+	/**
+	 * @param fanOut whether {@link Map} payloads hold several entries, whose values are converted one by one
+	 */
+	void setFanOut(boolean fanOut) {
+		this.fanOut = fanOut;
+	}
+
+	/**
+	 * @param recordKeyExpression the expression evaluated against each record to obtain its key. When set, each
+	 * payload is a JSON array of objects or newline-delimited JSON whose objects are written as separate entries.
+	 * @param chunkSize the maximum number of records written with a single putAll
+	 */
+	void setRecords(Expression recordKeyExpression, int chunkSize) {
+		this.recordKeyExpression = recordKeyExpression;
+		this.chunkSize = chunkSize;
 	}
 
 	public void handle(Message<?> message) {
-		Message<?> transformedMessage = message;
-		if (convertToJson) {
-			Object payload = message.getPayload();
+		Object id = null;
+		if (idempotencyCache != null) {
+			id = idempotencyKeyExpression.getValue(evaluationContext, message);
+			if (id != null && !idempotencyCache.addIfAbsent(id)) {
+				return;
+			}
+		}
+		try {
+			doHandle(message);
+		}
+		catch (RuntimeException e) {
+			if (id != null) {
+				idempotencyCache.remove(id);
+			}
+			throw e;
+		}
+	}
 
-			PdxInstance transformedPayload;
+	private void doHandle(Message<?> message) {
+		Message<?> transformedMessage = message;
+		if (deleteExpression != null
+				&& Boolean.TRUE.equals(deleteExpression.getValue(evaluationContext, message, Boolean.class))) {
+			transformedMessage = MessageBuilder
+					.fromMessage(message)
+					.withPayload(Tombstone.INSTANCE)
+					.build();
+		}
+		if (journal != null) {
+			journal.append(serializable(transformedMessage));
+		}
+		else {
+			write(transformedMessage);
+		}
+	}
 
-			if (payload instanceof byte[]) {
-				transformedPayload = transformer.toObject((byte[]) payload);
+	/**
+	 * Convert the payload if required and write the message to the region.
+	 * @param message the message, whose payload may be a {@link Tombstone}
+	 */
+	void write(Message<?> message) {
+		byte[] envelope = compress(message);
+		if (envelope != null) {
+			messageHandler.handleMessage(MessageBuilder.fromMessage(message).withPayload(envelope).build());
+			return;
+		}
+		if (recordKeyExpression != null && !Tombstone.isTombstone(message.getPayload())) {
+			writeRecords(message);
+			return;
+		}
+		Message<?> transformedMessage = message;
+		if (raw && !Tombstone.isTombstone(message.getPayload())) {
+			if (!(message.getPayload() instanceof byte[] || message.getPayload() instanceof ByteBuffer)) {
+				throw new MessageConversionException(String.format(
+						"Raw mode requires byte[] or ByteBuffer payloads but found %s", message.getPayload()
+								.getClass().getName()));
+			}
+			transformedMessage = serializable(message);
+		}
+		else if (mergePatch && !Tombstone.isTombstone(message.getPayload())) {
+			Object payload = message.getPayload();
+			if (!(payload instanceof String || payload instanceof byte[] || payload instanceof ByteBuffer
+					|| payload instanceof Map) || converter(message, payload) != null) {
+				throw new MessageConversionException(String.format(
+						"Merge patches must be JSON String, byte[], ByteBuffer or Map payloads but found %s",
+						payload.getClass().getName()));
 			}
-			else if (payload instanceof String) {
-				transformedPayload = transformer.toObject((String) payload);
+			transformedMessage = payload instanceof Map
+					? MessageBuilder.fromMessage(message).withPayload(toJson((Map<?, ?>) payload)).build()
+					: serializable(message);
+		}
+		else if (convertToJson && !Tombstone.isTombstone(message.getPayload())) {
+			Object payload = message.getPayload();
+			Object transformedPayload;
+			if (fanOut && payload instanceof Map) {
+				Map<Object, Object> documents = new LinkedHashMap<>();
+				for (Map.Entry<?, ?> entry : ((Map<?, ?>) payload).entrySet()) {
+					documents.put(entry.getKey(), toPdxInstance(message, entry.getValue()));
+				}
+				transformedPayload = documents;
 			}
 			else {
-				throw new MessageConversionException(String.format(
-						"Cannot convert object of type %s", payload.getClass()
-								.getName()));
+				transformedPayload = toPdxInstance(message, payload);
 			}
-
 			transformedMessage = MessageBuilder
 					.fromMessage(message)
 					.withPayload(transformedPayload)
@@ -64,4 +254,169 @@ class GemfireSinkHandler {
 		}
 		messageHandler.handleMessage(transformedMessage);
 	}
+
+	private PdxInstance toPdxInstance(Message<?> message, Object payload) {
+		PdxInstance transformedPayload;
+		PdxInstanceConverter converter = converter(message, payload);
+
+		if (converter != null) {
+			transformedPayload = convert(converter, payload);
+		}
+		else if (payload instanceof byte[]) {
+			transformedPayload = transformer.toObject((byte[]) payload);
+		}
+		else if (payload instanceof ByteBuffer) {
+			transformedPayload = transformer.toObject((ByteBuffer) payload);
+		}
+		else if (payload instanceof String) {
+			transformedPayload = transformer.toObject((String) payload);
+		}
+		else {
+			throw new MessageConversionException(String.format(
+					"Cannot convert object of type %s", payload.getClass()
+							.getName()));
+		}
+
+		Long expirationTime = expirationTime(message);
+		if (expirationTime != null) {
+			transformedPayload = transformer.withField(transformedPayload, expirationField, expirationTime);
+		}
+		return transformedPayload;
+	}
+
+	private Long expirationTime(Message<?> message) {
+		if (ttlExpression == null) {
+			return null;
+		}
+		Long ttl = ttlExpression.getValue(evaluationContext, message, Long.class);
+		return ttl != null && ttl > 0 ? System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(ttl) : null;
+	}
+
+	/**
+	 * Read the records of a JSON array or NDJSON payload one at a time and write them in chunks, each with a single
+	 * putAll, so that at most one chunk of records is held in memory. A payload handled by a binary converter is a
+	 * single record. The chunks written before a failure remain applied.
+	 */
+	private void writeRecords(Message<?> message) {
+		Object payload = message.getPayload();
+		Long expirationTime = expirationTime(message);
+		Map<Object, Object> chunk = new LinkedHashMap<>();
+		Consumer<PdxInstance> records = record -> {
+			if (expirationTime != null) {
+				record = transformer.withField(record, expirationField, expirationTime);
+			}
+			Object key = recordKeyExpression.getValue(evaluationContext, record);
+			if (key == null) {
+				throw new MessageHandlingException(message, "The record key expression '"
+						+ recordKeyExpression.getExpressionString() + "' evaluated to null");
+			}
+			chunk.put(key, record);
+			if (chunk.size() >= chunkSize) {
+				writeChunk(message, chunk);
+			}
+		};
+		PdxInstanceConverter converter = converter(message, payload);
+		if (converter != null) {
+			records.accept(convert(converter, payload));
+		}
+		else if (payload instanceof byte[]) {
+			transformer.toObjects((byte[]) payload, records);
+		}
+		else if (payload instanceof ByteBuffer) {
+			transformer.toObjects((ByteBuffer) payload, records);
+		}
+		else if (payload instanceof String) {
+			transformer.toObjects((String) payload, records);
+		}
+		else {
+			throw new MessageConversionException(String.format(
+					"Cannot convert object of type %s", payload.getClass()
+							.getName()));
+		}
+		if (!chunk.isEmpty()) {
+			writeChunk(message, chunk);
+		}
+	}
+
+	private void writeChunk(Message<?> message, Map<Object, Object> chunk) {
+		// the region writer is synchronous, so the chunk can be reused once it returns
+		messageHandler.handleMessage(MessageBuilder.withPayload(chunk).copyHeaders(message.getHeaders()).build());
+		chunk.clear();
+	}
+
+	private byte[] compress(Message<?> message) {
+		Object payload = message.getPayload();
+		if (compressor == null || Tombstone.isTombstone(payload) || (raw && payload instanceof String)) {
+			return null;
+		}
+		if (convertToJson) {
+			return converter(message, payload) == null
+					? compressor.compress(CompressionEnvelope.Content.JSON, payload)
+					: null;
+		}
+		return compressor.compress(payload instanceof String
+				? CompressionEnvelope.Content.STRING
+				: CompressionEnvelope.Content.BYTES, payload);
+	}
+
+	private PdxInstanceConverter converter(Message<?> message, Object payload) {
+		if (converters.isEmpty() || !(payload instanceof byte[] || payload instanceof ByteBuffer)) {
+			return null;
+		}
+		Object contentType = message.getHeaders().get(MessageHeaders.CONTENT_TYPE);
+		if (contentType == null) {
+			return null;
+		}
+		MimeType mimeType = contentType instanceof MimeType
+				? (MimeType) contentType
+				: MimeTypeUtils.parseMimeType(contentType.toString());
+		for (PdxInstanceConverter converter : converters) {
+			if (converter.supports(mimeType)) {
+				return converter;
+			}
+		}
+		return null;
+	}
+
+	private static PdxInstance convert(PdxInstanceConverter converter, Object payload) {
+		if (payload instanceof byte[]) {
+			return converter.convert((byte[]) payload, 0, ((byte[]) payload).length);
+		}
+		ByteBuffer buffer = (ByteBuffer) payload;
+		if (buffer.hasArray()) {
+			return converter.convert(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+		}
+		byte[] bytes = new byte[buffer.remaining()];
+		buffer.duplicate().get(bytes);
+		return converter.convert(bytes, 0, bytes.length);
+	}
+
+	private static byte[] toJson(Map<?, ?> patch) {
+		ByteArrayBuilder json = new ByteArrayBuilder();
+		try (JsonGenerator generator = JSON_FACTORY.createGenerator(json, JsonEncoding.UTF8)) {
+			JsonPdxInstances.writeValue(patch, generator);
+		}
+		catch (IOException e) {
+			throw new MessageConversionException("Failed to write the merge patch as JSON: " + e.getMessage(), e);
+		}
+		return json.toByteArray();
+	}
+
+	/**
+	 * Replace a ByteBuffer payload, which is not serializable, with a byte array: the buffer's backing array if the
+	 * buffer spans all of it, a copy of the buffer's content otherwise.
+	 */
+	private static Message<?> serializable(Message<?> message) {
+		if (message.getPayload() instanceof ByteBuffer) {
+			ByteBuffer buffer = ((ByteBuffer) message.getPayload()).duplicate();
+			if (buffer.hasArray() && buffer.arrayOffset() == 0 && buffer.position() == 0
+					&& buffer.remaining() == buffer.array().length) {
+				return MessageBuilder.fromMessage(message).withPayload(buffer.array()).build();
+			}
+			byte[] bytes = new byte[buffer.remaining()];
+			buffer.get(bytes);
+			return MessageBuilder.fromMessage(message).withPayload(bytes).build();
+		}
+		return message;
+	}
 }
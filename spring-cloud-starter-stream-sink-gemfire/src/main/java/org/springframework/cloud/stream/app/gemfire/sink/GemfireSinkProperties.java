@@ -15,8 +15,17 @@
 
 package org.springframework.cloud.stream.app.gemfire.sink;
 
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.validation.constraints.AssertTrue;
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+
 import org.hibernate.validator.constraints.NotBlank;
 import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.cloud.stream.app.gemfire.JsonFieldType;
+import org.springframework.util.StringUtils;
 import org.springframework.validation.annotation.Validated;
 
 /**
@@ -36,6 +45,227 @@ public class GemfireSinkProperties {
 	 */
 	private boolean json;
 
+	/**
+	 * The maximum number of entries written to the region in a single putAll. Values greater than 1 enable batching.
+	 */
+	private int batchSize = 1;
+
+	/**
+	 * The maximum time in milliseconds an incomplete batch is held before it is written to the region.
+	 */
+	private long batchTimeout = 1000;
+
+	/**
+	 * The maximum number of region writes in flight at once. Values greater than 0 enable asynchronous writes.
+	 */
+	private int maxInFlight = 0;
+
+	/**
+	 * Keep only the latest value for each key within a batch (last write wins). Requires batching.
+	 */
+	private boolean coalesce;
+
+	/**
+	 * The number of worker lanes writing to the region in parallel. Entries are assigned to a lane by the hash of
+	 * their key, so updates to the same key are written in order. Values greater than 0 enable key-striped writes.
+	 */
+	private int lanes = 0;
+
+	/**
+	 * The maximum number of messages waiting in each worker lane. When a lane is full the binder thread waits.
+	 */
+	private int laneQueueCapacity = 1000;
+
+	/**
+	 * The id of a function registered on the servers to which batches of entries are sent instead of being written
+	 * with putAll, such as the gemfire-sink-bulk-put function of the gemfire-app-starters-server-functions jar.
+	 */
+	private String functionId;
+
+	/**
+	 * Treat JSON payloads as JSON merge patches applied to the stored documents on the servers by the
+	 * gemfire-sink-json-merge-patch function of the gemfire-app-starters-server-functions jar. Requires json. The
+	 * patches are sent as JSON and parsed by the function, so they are not converted on the client.
+	 */
+	private boolean mergePatch;
+
+	/**
+	 * SpEL expression evaluated against the payload and the stored value to obtain their version or timestamp. When
+	 * set, an entry is written only if its version is newer than that of the stored value.
+	 */
+	private String versionExpression;
+
+	/**
+	 * SpEL expression evaluated against each message that, when true, marks the message as a tombstone: the entry for
+	 * its key is removed from the region instead of written.
+	 */
+	private String deleteExpression;
+
+	/**
+	 * The directory of the write-behind journal. When set, messages are appended to a journal on local disk and
+	 * written to the region by a background drainer, so the sink keeps accepting messages while the cluster is
+	 * unreachable.
+	 */
+	private String journalDirectory;
+
+	/**
+	 * The size in bytes of each write-behind journal segment file.
+	 */
+	private int journalSegmentSize = 64 * 1024 * 1024;
+
+	/**
+	 * The maximum size in bytes of the write-behind journal. When it is full the binder thread waits.
+	 */
+	private long journalMaxSize = 1024L * 1024 * 1024;
+
+	/**
+	 * The time in milliseconds to wait before retrying to write journal messages to the region after a failure.
+	 */
+	private long journalRetryInterval = 5000;
+
+	/**
+	 * Guard region writes with a circuit breaker that rejects messages at once while the cluster is failing or slow.
+	 * Cannot be combined with batching, lanes or asynchronous writes.
+	 */
+	private boolean circuitBreakerEnabled;
+
+	/**
+	 * The percentage of failed writes at which the circuit opens.
+	 */
+	private int circuitBreakerFailureRateThreshold = 50;
+
+	/**
+	 * The percentage of slow writes at which the circuit opens.
+	 */
+	private int circuitBreakerSlowCallRateThreshold = 100;
+
+	/**
+	 * The duration in milliseconds above which a write is considered slow.
+	 */
+	private long circuitBreakerSlowCallDuration = 5000;
+
+	/**
+	 * The number of most recent writes whose outcomes are used to compute the failure and slow call rates.
+	 */
+	private int circuitBreakerWindowSize = 100;
+
+	/**
+	 * The minimum number of writes recorded before the circuit can open.
+	 */
+	private int circuitBreakerMinimumCalls = 10;
+
+	/**
+	 * The time in milliseconds the circuit stays open before trial writes are permitted.
+	 */
+	private long circuitBreakerOpenDuration = 30000;
+
+	/**
+	 * The number of trial writes permitted while the circuit is half-open, whose outcomes decide whether it closes.
+	 */
+	private int circuitBreakerHalfOpenCalls = 5;
+
+	/**
+	 * SpEL expression evaluated against each message to obtain its id, such as a header set by the producer. When
+	 * set, messages whose id was written recently are dropped. Cannot be combined with batching, lanes or asynchronous
+	 * writes.
+	 */
+	private String idempotencyKeyExpression;
+
+	/**
+	 * The maximum number of message ids held to detect duplicates. Each id takes 40 to 64 bytes.
+	 */
+	private int idempotencyCacheSize = 100000;
+
+	/**
+	 * The time in milliseconds a message id is held to detect duplicates, or 0 to hold ids until they are evicted by
+	 * newer ones.
+	 */
+	private long idempotencyWindow;
+
+	/**
+	 * Write the fields of JSON documents sorted by name, so that documents listing the same fields in a different
+	 * order share a PDX type. Requires json.
+	 */
+	private boolean jsonCanonicalFieldOrder;
+
+	/**
+	 * The PDX types of top-level JSON fields, by field name (string, boolean, byte, short, int, long, float, double
+	 * or object). Declared fields are always written with their type, and with their default value when absent, so
+	 * that documents with optional fields share a PDX type. Implies jsonCanonicalFieldOrder. Requires json.
+	 */
+	private Map<String, JsonFieldType> jsonSchema = new HashMap<>();
+
+	/**
+	 * Locations of Avro schema files (.avsc), which may be patterns such as classpath*:schemas/*.avsc. Payloads with
+	 * an Avro content type must use the single object encoding and be written with one of these schemas. Requires
+	 * json.
+	 */
+	private String[] avroSchemaLocations = new String[0];
+
+	/**
+	 * Store byte[] payloads as they are, without any conversion, for regions that are read back as raw bytes.
+	 * ByteBuffer payloads are stored as the bytes they hold and other payloads are rejected. Cannot be combined with
+	 * json.
+	 */
+	private boolean raw;
+
+	/**
+	 * SpEL expression evaluated against each message to obtain the name of the region it is written to. When set,
+	 * client regions are created on demand on the shared pool, each with its own writer and batch, and
+	 * gemfire.region.regionName is only the region the sink starts with.
+	 */
+	private String regionExpression;
+
+	/**
+	 * The maximum number of regions written to by a region expression that are kept open. The least recently used
+	 * region is flushed and closed on the client when another region is needed.
+	 */
+	private int regionCacheSize = 16;
+
+	/**
+	 * SpEL expression evaluated against each message to obtain the time to live of its entry in seconds, such as
+	 * headers['ttl']. Documents with a positive time to live are stamped with their expiration time, which the
+	 * gemfire-app-starters-server-functions CustomExpiry applies on the servers. Requires json.
+	 */
+	private String ttlExpression;
+
+	/**
+	 * The document field holding the expiration time stamped by the ttl expression, in milliseconds since the epoch.
+	 */
+	private String expirationField = "expiresAt";
+
+	/**
+	 * The size in bytes from which String, byte[] and JSON payloads are stored compressed with LZ4 in an envelope that
+	 * the Gemfire sources decompress, or 0 to disable compression. Compressed JSON documents are stored as bytes
+	 * rather than PdxInstances.
+	 */
+	private int compressionThreshold = 0;
+
+	/**
+	 * Write each batch in a single client transaction, so that all of its entries are applied or none is. Map payloads
+	 * fan out to one entry per map entry, written in the same transaction. On a partitioned region the keys of a batch
+	 * must be colocated.
+	 */
+	private boolean transactional;
+
+	/**
+	 * The number of times a transaction that failed to commit because of a conflicting update is retried.
+	 */
+	private int transactionMaxRetries = 3;
+
+	/**
+	 * SpEL expression evaluated against each record to obtain its key, such as getField('id'). When set, each payload
+	 * is a JSON array of objects or newline-delimited JSON, whose objects are read one at a time and written as
+	 * separate entries. A payload is not written atomically: if it fails part way, for a malformed record or a failed
+	 * putAll, the chunks written before the failure remain applied. Requires json.
+	 */
+	private String recordKeyExpression;
+
+	/**
+	 * The maximum number of records written with a single putAll when a record key expression is set.
+	 */
+	private int recordChunkSize = 1000;
+
 	@NotBlank(message = "A valid key expression is required")
 	public String getKeyExpression() {
 		return keyExpression;
@@ -53,5 +283,440 @@ public class GemfireSinkProperties {
 		this.json = json;
 	}
 
+	@Min(value = 1, message = "The batch size must be at least 1")
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	@Min(value = 1, message = "The batch timeout must be at least 1 millisecond")
+	public long getBatchTimeout() {
+		return batchTimeout;
+	}
+
+	public void setBatchTimeout(long batchTimeout) {
+		this.batchTimeout = batchTimeout;
+	}
+
+	@Min(value = 0, message = "The maximum number of in-flight writes must not be negative")
+	public int getMaxInFlight() {
+		return maxInFlight;
+	}
+
+	public void setMaxInFlight(int maxInFlight) {
+		this.maxInFlight = maxInFlight;
+	}
+
+	public boolean isCoalesce() {
+		return coalesce;
+	}
+
+	public void setCoalesce(boolean coalesce) {
+		this.coalesce = coalesce;
+	}
+
+	@Min(value = 0, message = "The number of lanes must not be negative")
+	public int getLanes() {
+		return lanes;
+	}
+
+	public void setLanes(int lanes) {
+		this.lanes = lanes;
+	}
+
+	@Min(value = 1, message = "The lane queue capacity must be at least 1")
+	public int getLaneQueueCapacity() {
+		return laneQueueCapacity;
+	}
+
+	public void setLaneQueueCapacity(int laneQueueCapacity) {
+		this.laneQueueCapacity = laneQueueCapacity;
+	}
+
+	public String getFunctionId() {
+		return functionId;
+	}
+
+	public void setFunctionId(String functionId) {
+		this.functionId = functionId;
+	}
+
+	public boolean isMergePatch() {
+		return mergePatch;
+	}
+
+	public void setMergePatch(boolean mergePatch) {
+		this.mergePatch = mergePatch;
+	}
+
+	public String getVersionExpression() {
+		return versionExpression;
+	}
+
+	public void setVersionExpression(String versionExpression) {
+		this.versionExpression = versionExpression;
+	}
+
+	public String getDeleteExpression() {
+		return deleteExpression;
+	}
+
+	public void setDeleteExpression(String deleteExpression) {
+		this.deleteExpression = deleteExpression;
+	}
+
+	public String getJournalDirectory() {
+		return journalDirectory;
+	}
+
+	public void setJournalDirectory(String journalDirectory) {
+		this.journalDirectory = journalDirectory;
+	}
+
+	@Min(value = 1024, message = "The journal segment size must be at least 1024 bytes")
+	public int getJournalSegmentSize() {
+		return journalSegmentSize;
+	}
+
+	public void setJournalSegmentSize(int journalSegmentSize) {
+		this.journalSegmentSize = journalSegmentSize;
+	}
+
+	public long getJournalMaxSize() {
+		return journalMaxSize;
+	}
+
+	public void setJournalMaxSize(long journalMaxSize) {
+		this.journalMaxSize = journalMaxSize;
+	}
+
+	@Min(value = 1, message = "The journal retry interval must be at least 1 millisecond")
+	public long getJournalRetryInterval() {
+		return journalRetryInterval;
+	}
+
+	public void setJournalRetryInterval(long journalRetryInterval) {
+		this.journalRetryInterval = journalRetryInterval;
+	}
+
+	public boolean isCircuitBreakerEnabled() {
+		return circuitBreakerEnabled;
+	}
+
+	public void setCircuitBreakerEnabled(boolean circuitBreakerEnabled) {
+		this.circuitBreakerEnabled = circuitBreakerEnabled;
+	}
+
+	@Min(value = 1, message = "The circuit breaker failure rate threshold must be between 1 and 100")
+	@Max(value = 100, message = "The circuit breaker failure rate threshold must be between 1 and 100")
+	public int getCircuitBreakerFailureRateThreshold() {
+		return circuitBreakerFailureRateThreshold;
+	}
+
+	public void setCircuitBreakerFailureRateThreshold(int circuitBreakerFailureRateThreshold) {
+		this.circuitBreakerFailureRateThreshold = circuitBreakerFailureRateThreshold;
+	}
+
+	@Min(value = 1, message = "The circuit breaker slow call rate threshold must be between 1 and 100")
+	@Max(value = 100, message = "The circuit breaker slow call rate threshold must be between 1 and 100")
+	public int getCircuitBreakerSlowCallRateThreshold() {
+		return circuitBreakerSlowCallRateThreshold;
+	}
+
+	public void setCircuitBreakerSlowCallRateThreshold(int circuitBreakerSlowCallRateThreshold) {
+		this.circuitBreakerSlowCallRateThreshold = circuitBreakerSlowCallRateThreshold;
+	}
+
+	@Min(value = 1, message = "The circuit breaker slow call duration must be at least 1 millisecond")
+	public long getCircuitBreakerSlowCallDuration() {
+		return circuitBreakerSlowCallDuration;
+	}
+
+	public void setCircuitBreakerSlowCallDuration(long circuitBreakerSlowCallDuration) {
+		this.circuitBreakerSlowCallDuration = circuitBreakerSlowCallDuration;
+	}
+
+	@Min(value = 1, message = "The circuit breaker window size must be at least 1")
+	public int getCircuitBreakerWindowSize() {
+		return circuitBreakerWindowSize;
+	}
+
+	public void setCircuitBreakerWindowSize(int circuitBreakerWindowSize) {
+		this.circuitBreakerWindowSize = circuitBreakerWindowSize;
+	}
+
+	@Min(value = 1, message = "The circuit breaker minimum number of calls must be at least 1")
+	public int getCircuitBreakerMinimumCalls() {
+		return circuitBreakerMinimumCalls;
+	}
+
+	public void setCircuitBreakerMinimumCalls(int circuitBreakerMinimumCalls) {
+		this.circuitBreakerMinimumCalls = circuitBreakerMinimumCalls;
+	}
+
+	@Min(value = 1, message = "The circuit breaker open duration must be at least 1 millisecond")
+	public long getCircuitBreakerOpenDuration() {
+		return circuitBreakerOpenDuration;
+	}
+
+	public void setCircuitBreakerOpenDuration(long circuitBreakerOpenDuration) {
+		this.circuitBreakerOpenDuration = circuitBreakerOpenDuration;
+	}
+
+	@Min(value = 1, message = "The circuit breaker number of half-open calls must be at least 1")
+	public int getCircuitBreakerHalfOpenCalls() {
+		return circuitBreakerHalfOpenCalls;
+	}
+
+	public void setCircuitBreakerHalfOpenCalls(int circuitBreakerHalfOpenCalls) {
+		this.circuitBreakerHalfOpenCalls = circuitBreakerHalfOpenCalls;
+	}
+
+	public String getIdempotencyKeyExpression() {
+		return idempotencyKeyExpression;
+	}
+
+	public void setIdempotencyKeyExpression(String idempotencyKeyExpression) {
+		this.idempotencyKeyExpression = idempotencyKeyExpression;
+	}
+
+	@Min(value = 1, message = "The idempotency cache size must be at least 1")
+	@Max(value = 1 << 28, message = "The idempotency cache size must not exceed 268435456")
+	public int getIdempotencyCacheSize() {
+		return idempotencyCacheSize;
+	}
+
+	public void setIdempotencyCacheSize(int idempotencyCacheSize) {
+		this.idempotencyCacheSize = idempotencyCacheSize;
+	}
+
+	@Min(value = 0, message = "The idempotency window must not be negative")
+	public long getIdempotencyWindow() {
+		return idempotencyWindow;
+	}
+
+	public void setIdempotencyWindow(long idempotencyWindow) {
+		this.idempotencyWindow = idempotencyWindow;
+	}
+
+	public boolean isJsonCanonicalFieldOrder() {
+		return jsonCanonicalFieldOrder;
+	}
+
+	public void setJsonCanonicalFieldOrder(boolean jsonCanonicalFieldOrder) {
+		this.jsonCanonicalFieldOrder = jsonCanonicalFieldOrder;
+	}
+
+	public Map<String, JsonFieldType> getJsonSchema() {
+		return jsonSchema;
+	}
+
+	public void setJsonSchema(Map<String, JsonFieldType> jsonSchema) {
+		this.jsonSchema = jsonSchema;
+	}
+
+	public String[] getAvroSchemaLocations() {
+		return avroSchemaLocations;
+	}
+
+	public void setAvroSchemaLocations(String[] avroSchemaLocations) {
+		this.avroSchemaLocations = avroSchemaLocations;
+	}
+
+	public boolean isRaw() {
+		return raw;
+	}
+
+	public void setRaw(boolean raw) {
+		this.raw = raw;
+	}
+
+	public String getRegionExpression() {
+		return regionExpression;
+	}
+
+	public void setRegionExpression(String regionExpression) {
+		this.regionExpression = regionExpression;
+	}
+
+	@Min(value = 1, message = "The region cache size must be at least 1")
+	public int getRegionCacheSize() {
+		return regionCacheSize;
+	}
+
+	public void setRegionCacheSize(int regionCacheSize) {
+		this.regionCacheSize = regionCacheSize;
+	}
+
+	public String getTtlExpression() {
+		return ttlExpression;
+	}
+
+	public void setTtlExpression(String ttlExpression) {
+		this.ttlExpression = ttlExpression;
+	}
+
+	public String getExpirationField() {
+		return expirationField;
+	}
+
+	public void setExpirationField(String expirationField) {
+		this.expirationField = expirationField;
+	}
+
+	@Min(value = 0, message = "The compression threshold must not be negative")
+	public int getCompressionThreshold() {
+		return compressionThreshold;
+	}
+
+	public void setCompressionThreshold(int compressionThreshold) {
+		this.compressionThreshold = compressionThreshold;
+	}
+
+	public boolean isTransactional() {
+		return transactional;
+	}
+
+	public void setTransactional(boolean transactional) {
+		this.transactional = transactional;
+	}
+
+	@Min(value = 0, message = "The number of transaction retries must not be negative")
+	public int getTransactionMaxRetries() {
+		return transactionMaxRetries;
+	}
+
+	public void setTransactionMaxRetries(int transactionMaxRetries) {
+		this.transactionMaxRetries = transactionMaxRetries;
+	}
+
+	public String getRecordKeyExpression() {
+		return recordKeyExpression;
+	}
+
+	public void setRecordKeyExpression(String recordKeyExpression) {
+		this.recordKeyExpression = recordKeyExpression;
+	}
+
+	@Min(value = 1, message = "The record chunk size must be at least 1")
+	public int getRecordChunkSize() {
+		return recordChunkSize;
+	}
+
+	public void setRecordChunkSize(int recordChunkSize) {
+		this.recordChunkSize = recordChunkSize;
+	}
+
+	@AssertTrue(message = "Batching (batchSize > 1, functionId or mergePatch) and asynchronous writes "
+			+ "(maxInFlight > 0) cannot be combined")
+	private boolean isWriteModeConsistent() {
+		return (this.batchSize <= 1 && !StringUtils.hasText(this.functionId) && !this.mergePatch)
+				|| this.maxInFlight == 0;
+	}
+
+	@AssertTrue(message = "Merge patches require json and cannot be combined with functionId, coalesce or, since "
+			+ "patches are sent as JSON rather than converted, ttlExpression, JSON normalization "
+			+ "(jsonCanonicalFieldOrder or jsonSchema) or Avro schemas")
+	private boolean isMergePatchConsistent() {
+		return !this.mergePatch || (this.json && !StringUtils.hasText(this.functionId) && !this.coalesce
+				&& !StringUtils.hasText(this.ttlExpression) && !this.jsonCanonicalFieldOrder
+				&& this.jsonSchema.isEmpty() && this.avroSchemaLocations.length == 0);
+	}
+
+	@AssertTrue(message = "Coalescing requires batching (batchSize > 1, functionId or transactional)")
+	private boolean isCoalesceConsistent() {
+		return !this.coalesce || batching();
+	}
+
+	@AssertTrue(message = "Version-guarded writes (versionExpression) cannot be combined with batching, functionId, "
+			+ "mergePatch, asynchronous writes or deleteExpression")
+	private boolean isVersionExpressionConsistent() {
+		return !StringUtils.hasText(this.versionExpression) || (this.batchSize <= 1
+				&& !StringUtils.hasText(this.functionId) && !this.mergePatch && this.maxInFlight == 0
+				&& !StringUtils.hasText(this.deleteExpression));
+	}
+
+	@AssertTrue(message = "Key-striped lanes (lanes > 0) and asynchronous writes (maxInFlight > 0) cannot be combined")
+	private boolean isLanesConsistent() {
+		return this.lanes == 0 || this.maxInFlight == 0;
+	}
+
+	@AssertTrue(message = "The journal (journalDirectory) cannot be combined with lanes or asynchronous writes, "
+			+ "and its maximum size must hold at least two segments")
+	private boolean isJournalConsistent() {
+		return !StringUtils.hasText(this.journalDirectory) || (this.lanes == 0 && this.maxInFlight == 0
+				&& this.journalMaxSize >= 2L * this.journalSegmentSize);
+	}
+
+	@AssertTrue(message = "The circuit breaker cannot be combined with batching, lanes or asynchronous writes, whose "
+			+ "writes complete after the message was handled, and its minimum number of calls and half-open calls "
+			+ "must not exceed its window size")
+	private boolean isCircuitBreakerConsistent() {
+		return !this.circuitBreakerEnabled || (!batching() && this.lanes == 0 && this.maxInFlight == 0
+				&& this.circuitBreakerMinimumCalls <= this.circuitBreakerWindowSize
+				&& this.circuitBreakerHalfOpenCalls <= this.circuitBreakerWindowSize);
+	}
+
+	@AssertTrue(message = "An idempotency key expression (idempotencyKeyExpression) cannot be combined with batching, "
+			+ "lanes or asynchronous writes, which write a message after it has been handled")
+	private boolean isIdempotencyKeyExpressionConsistent() {
+		return !StringUtils.hasText(this.idempotencyKeyExpression)
+				|| (!batching() && this.lanes == 0 && this.maxInFlight == 0);
+	}
+
+	@AssertTrue(message = "JSON normalization (jsonCanonicalFieldOrder or jsonSchema) and Avro schemas require json")
+	private boolean isJsonNormalizationConsistent() {
+		return (!this.jsonCanonicalFieldOrder && this.jsonSchema.isEmpty() && this.avroSchemaLocations.length == 0)
+				|| this.json;
+	}
+
+	@AssertTrue(message = "Raw mode (raw) cannot be combined with json")
+	private boolean isRawConsistent() {
+		return !this.raw || !this.json;
+	}
+
+	@AssertTrue(message = "A region expression (regionExpression) cannot be combined with lanes or asynchronous writes")
+	private boolean isRegionExpressionConsistent() {
+		return !StringUtils.hasText(this.regionExpression) || (this.lanes == 0 && this.maxInFlight == 0);
+	}
+
+	@AssertTrue(message = "A ttl expression (ttlExpression) requires json and an expirationField")
+	private boolean isTtlExpressionConsistent() {
+		return !StringUtils.hasText(this.ttlExpression) || (this.json && StringUtils.hasText(this.expirationField));
+	}
+
+	@AssertTrue(message = "Compression (compressionThreshold > 0) cannot be combined with mergePatch, "
+			+ "versionExpression or ttlExpression, which read the stored values")
+	private boolean isCompressionConsistent() {
+		return this.compressionThreshold == 0 || (!this.mergePatch && !StringUtils.hasText(this.versionExpression)
+				&& !StringUtils.hasText(this.ttlExpression));
+	}
+
+	@AssertTrue(message = "Transactional writes (transactional) cannot be combined with functionId, mergePatch, "
+			+ "asynchronous writes or versionExpression")
+	private boolean isTransactionalConsistent() {
+		return !this.transactional || (!StringUtils.hasText(this.functionId) && !this.mergePatch
+				&& this.maxInFlight == 0 && !StringUtils.hasText(this.versionExpression));
+	}
+
+	@AssertTrue(message = "A record key expression (recordKeyExpression) requires json and cannot be combined with "
+			+ "batching, transactional writes, lanes, asynchronous writes, versionExpression, the journal or "
+			+ "compression")
+	private boolean isRecordKeyExpressionConsistent() {
+		return !StringUtils.hasText(this.recordKeyExpression) || (this.json && this.batchSize <= 1
+				&& !StringUtils.hasText(this.functionId) && !this.mergePatch && !this.transactional && this.lanes == 0
+				&& this.maxInFlight == 0 && !StringUtils.hasText(this.versionExpression)
+				&& !StringUtils.hasText(this.journalDirectory) && this.compressionThreshold == 0);
+	}
+
+	/**
+	 * Whether entries are collected into batches, as the sink configuration does for these settings.
+	 */
+	private boolean batching() {
+		return this.batchSize > 1 || StringUtils.hasText(this.functionId) || this.mergePatch || this.transactional;
+	}
 
 }
@@ -0,0 +1,210 @@
+/*
+ * Copyright 2019 the original author or authors.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.gemfire.sink;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import org.springframework.util.Assert;
+
+/**
+ * A bounded set of the message ids seen most recently, used to drop redelivered messages. Ids are reduced to 64-bit
+ * fingerprints held in preallocated arrays: a ring buffer in insertion order and an open addressing hash index, so
+ * recording an id allocates nothing and the memory used is fixed at 40 to 64 bytes per entry. When the cache is full
+ * the oldest id is evicted; if a window is set, ids older than the window are evicted as well.
+ *
+ * An id is looked up and recorded in one step, so that of concurrent deliveries of the same message only one is
+ * written; if its write fails, the id is removed again so that the redelivered message is not dropped.
+ *
+ * Lookups are counted by the {@code gemfire.sink.idempotency.hits} and {@code gemfire.sink.idempotency.misses}
+ * counters, and the number of ids held is published as the {@code gemfire.sink.idempotency.size} gauge.
+ */
+class IdempotencyCache {
+
+	private static final long EMPTY = 0;
+
+	private final long windowNanos;
+
+	private final long[] fingerprints;
+
+	private final long[] timestamps;
+
+	private final long[] index;
+
+	private final int[] positions;
+
+	private final int mask;
+
+	private int head;
+
+	private int size;
+
+	private final Counter hits;
+
+	private final Counter misses;
+
+	/**
+	 * @param maxEntries the maximum number of ids held
+	 * @param window the time in milliseconds an id is held, or 0 to hold ids until they are evicted by newer ones
+	 * @param meterRegistry the registry of the metrics
+	 */
+	IdempotencyCache(int maxEntries, long window, MeterRegistry meterRegistry) {
+		Assert.isTrue(maxEntries > 0, "'maxEntries' must be greater than 0");
+		Assert.isTrue(maxEntries <= 1 << 28, "'maxEntries' must not be greater than 2^28");
+		Assert.isTrue(window >= 0, "'window' must not be negative");
+		this.windowNanos = TimeUnit.MILLISECONDS.toNanos(window);
+		this.fingerprints = new long[maxEntries];
+		this.timestamps = new long[maxEntries];
+		this.index = new long[Integer.highestOneBit(maxEntries) << 2];
+		this.positions = new int[this.index.length];
+		this.mask = this.index.length - 1;
+		meterRegistry.gauge("gemfire.sink.idempotency.size", this, IdempotencyCache::size);
+		this.hits = Counter.builder("gemfire.sink.idempotency.hits")
+				.description("Number of messages dropped because their id was seen recently")
+				.register(meterRegistry);
+		this.misses = Counter.builder("gemfire.sink.idempotency.misses")
+				.description("Number of messages whose id was not seen recently")
+				.register(meterRegistry);
+	}
+
+	synchronized int size() {
+		return this.size;
+	}
+
+	/**
+	 * Record an id unless it is already held, evicting the oldest one if the cache is full, and count a hit or a miss.
+	 * @param id the id
+	 * @return true if the id was recorded, false if it was recorded within the window
+	 */
+	synchronized boolean addIfAbsent(Object id) {
+		long now = System.nanoTime();
+		expire(now);
+		long fingerprint = fingerprint(id);
+		if (find(fingerprint) >= 0) {
+			this.hits.increment();
+			return false;
+		}
+		this.misses.increment();
+		if (this.size == this.fingerprints.length) {
+			evictOldest();
+		}
+		int tail = (this.head + this.size) % this.fingerprints.length;
+		this.fingerprints[tail] = fingerprint;
+		this.timestamps[tail] = now;
+		this.size++;
+		int slot = slot(fingerprint);
+		while (this.index[slot] != EMPTY) {
+			slot = (slot + 1) & this.mask;
+		}
+		this.index[slot] = fingerprint;
+		this.positions[slot] = tail;
+		return true;
+	}
+
+	/**
+	 * Remove an id, such as the id of a message that failed to be written. Its place in the ring buffer is freed when
+	 * it would have been evicted.
+	 * @param id the id
+	 */
+	synchronized void remove(Object id) {
+		int slot = find(fingerprint(id));
+		if (slot >= 0) {
+			this.fingerprints[this.positions[slot]] = EMPTY;
+			removeSlot(slot);
+		}
+	}
+
+	private void expire(long now) {
+		if (this.windowNanos > 0) {
+			while (this.size > 0 && now - this.timestamps[this.head] >= this.windowNanos) {
+				evictOldest();
+			}
+		}
+	}
+
+	private void evictOldest() {
+		if (this.fingerprints[this.head] != EMPTY) {
+			removeSlot(find(this.fingerprints[this.head]));
+		}
+		this.head = (this.head + 1) % this.fingerprints.length;
+		this.size--;
+	}
+
+	private int find(long fingerprint) {
+		for (int slot = slot(fingerprint); this.index[slot] != EMPTY; slot = (slot + 1) & this.mask) {
+			if (this.index[slot] == fingerprint) {
+				return slot;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Remove a slot from the index, shifting back the entries of its probe sequence so that no tombstones are needed.
+	 */
+	private void removeSlot(int hole) {
+		for (int slot = (hole + 1) & this.mask; this.index[slot] != EMPTY; slot = (slot + 1) & this.mask) {
+			int home = slot(this.index[slot]);
+			if (((slot - home) & this.mask) >= ((slot - hole) & this.mask)) {
+				this.index[hole] = this.index[slot];
+				this.positions[hole] = this.positions[slot];
+				hole = slot;
+			}
+		}
+		this.index[hole] = EMPTY;
+	}
+
+	private int slot(long fingerprint) {
+		return (int) (fingerprint ^ (fingerprint >>> 32)) & this.mask;
+	}
+
+	/**
+	 * Reduce an id to a 64-bit fingerprint, never {@link #EMPTY}.
+	 */
+	static long fingerprint(Object id) {
+		long hash;
+		if (id instanceof UUID) {
+			hash = mix(((UUID) id).getMostSignificantBits()) ^ ((UUID) id).getLeastSignificantBits();
+		}
+		else if (id instanceof Long || id instanceof Integer || id instanceof Short || id instanceof Byte) {
+			hash = ((Number) id).longValue();
+		}
+		else if (id instanceof byte[]) {
+			hash = 0xcbf29ce484222325L;
+			for (byte b : (byte[]) id) {
+				hash = (hash ^ (b & 0xff)) * 0x100000001b3L;
+			}
+		}
+		else {
+			CharSequence chars = id instanceof CharSequence ? (CharSequence) id : id.toString();
+			hash = 0xcbf29ce484222325L;
+			for (int i = 0; i < chars.length(); i++) {
+				hash = (hash ^ chars.charAt(i)) * 0x100000001b3L;
+			}
+		}
+		hash = mix(hash);
+		return hash != EMPTY ? hash : 1;
+	}
+
+	private static long mix(long value) {
+		value = (value ^ (value >>> 33)) * 0xff51afd7ed558ccdL;
+		value = (value ^ (value >>> 33)) * 0xc4ceb9fe1a85ec53L;
+		return value ^ (value >>> 33);
+	}
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2019 the original author or authors.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.gemfire.sink;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.geode.pdx.PdxInstance;
+
+import org.springframework.cloud.stream.app.gemfire.JsonPdxInstanceReader;
+import org.springframework.integration.transformer.MessageTransformationException;
+import org.springframework.messaging.converter.MessageConversionException;
+import org.springframework.util.Assert;
+import org.springframework.util.MimeType;
+
+/**
+ * Converts payloads of a binary data format with a Jackson streaming parser, such as CBOR or MessagePack, straight
+ * into {@link PdxInstance}s, with the same field mapping as JSON documents.
+ */
+class JacksonPdxInstanceConverter implements PdxInstanceConverter {
+
+	private final JsonPdxInstanceReader reader;
+
+	private final List<MimeType> contentTypes;
+
+	/**
+	 * @param reader the reader, created with the factory of the data format
+	 * @param contentTypes the content types of the data format
+	 */
+	JacksonPdxInstanceConverter(JsonPdxInstanceReader reader, MimeType... contentTypes) {
+		Assert.notNull(reader, "'reader' must not be null");
+		Assert.notEmpty(contentTypes, "'contentTypes' must not be empty");
+		this.reader = reader;
+		this.contentTypes = Arrays.asList(contentTypes);
+	}
+
+	@Override
+	public boolean supports(MimeType contentType) {
+		return this.contentTypes.stream().anyMatch(supported -> supported.includes(contentType));
+	}
+
+	@Override
+	public PdxInstance convert(byte[] payload, int offset, int length) {
+		try {
+			return this.reader.read(payload, offset, length);
+		}
+		catch (MessageTransformationException e) {
+			throw new MessageConversionException(e.getMessage(), e);
+		}
+	}
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2019 the original author or authors.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.gemfire.sink;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.expression.EvaluationContext;
+import org.springframework.expression.Expression;
+import org.springframework.integration.expression.ExpressionUtils;
+import org.springframework.integration.handler.AbstractMessageHandler;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.MessageHandlingException;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.util.Assert;
+
+/**
+ * A {@link MessageHandler} that spreads writes over a fixed number of worker lanes. Each message is routed to a lane
+ * by the hash of its cache key, so updates to the same key are written in order by a single thread while different
+ * keys are written in parallel. Each lane has its own region writer (a plain or batching cache writer) and a bounded
+ * queue; when a lane's queue is full the calling (binder) thread blocks, applying backpressure to the binder.
+ *
+ * The binder has acknowledged a message by the time its lane writes it, so a message whose write fails is sent to the
+ * error channel by {@link DeadLetters}; a batching writer reports the failures of its batches itself.
+ *
+ * The depth of each lane's queue is published as the {@code gemfire.sink.lane.queue.size} gauge, tagged with the
+ * lane number.
+ */
+class KeyStripedMessageHandler extends AbstractMessageHandler implements DisposableBean {
+
+	private static final long SHUTDOWN_TIMEOUT_SECONDS = 30;
+
+	private static final RejectedExecutionHandler BLOCK_CALLER = (task, executor) -> {
+		if (executor.isShutdown()) {
+			throw new RejectedExecutionException("The sink is shutting down");
+		}
+		try {
+			executor.getQueue().put(task);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RejectedExecutionException("Interrupted while waiting for a lane queue", e);
+		}
+		// a lane shut down while the caller waited may already have drained its queue and would never run the task
+		if (executor.isShutdown() && executor.remove(task)) {
+			throw new RejectedExecutionException("The sink is shutting down");
+		}
+	};
+
+	private final Expression keyExpression;
+
+	private final List<ThreadPoolExecutor> lanes = new ArrayList<>();
+
+	private final List<MessageHandler> writers = new ArrayList<>();
+
+	private DeadLetters deadLetters;
+
+	private EvaluationContext evaluationContext;
+
+	/**
+	 * @param keyExpression the cache key expression used to route messages to lanes
+	 * @param laneCount the number of lanes
+	 * @param queueCapacity the maximum number of messages waiting in each lane
+	 * @param writerFactory creates the region writer of each lane
+	 * @param meterRegistry the registry for the lane queue gauges
+	 */
+	KeyStripedMessageHandler(Expression keyExpression, int laneCount, int queueCapacity,
+			Supplier<MessageHandler> writerFactory, MeterRegistry meterRegistry) {
+		Assert.notNull(keyExpression, "'keyExpression' must not be null");
+		Assert.isTrue(laneCount > 0, "'laneCount' must be greater than 0");
+		Assert.isTrue(queueCapacity > 0, "'queueCapacity' must be greater than 0");
+		this.keyExpression = keyExpression;
+		for (int i = 0; i < laneCount; i++) {
+			ThreadPoolExecutor lane = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+					new ArrayBlockingQueue<>(queueCapacity), new CustomizableThreadFactory("gemfire-sink-lane-" + i + "-"),
+					BLOCK_CALLER);
+			Gauge.builder("gemfire.sink.lane.queue.size", lane, executor -> executor.getQueue().size())
+					.description("Number of messages waiting to be written by a sink lane")
+					.tag("lane", String.valueOf(i))
+					.register(meterRegistry);
+			this.lanes.add(lane);
+			this.writers.add(writerFactory.get());
+		}
+	}
+
+	/**
+	 * Send the messages whose write failed on a lane to the error channel.
+	 * @param deadLetters the dead letters, or null to only log failures
+	 */
+	void setDeadLetters(DeadLetters deadLetters) {
+		this.deadLetters = deadLetters;
+	}
+
+	@Override
+	public String getComponentType() {
+		return "gemfire:key-striped-outbound-channel-adapter";
+	}
+
+	@Override
+	protected void onInit() {
+		super.onInit();
+		this.evaluationContext = ExpressionUtils.createStandardEvaluationContext(getBeanFactory());
+		for (MessageHandler writer : this.writers) {
+			MessageHandlers.initialize(writer, getBeanFactory());
+		}
+	}
+
+	@Override
+	protected void handleMessageInternal(Message<?> message) {
+		Object key = this.keyExpression.getValue(this.evaluationContext, message);
+		if (key == null) {
+			throw new MessageHandlingException(message,
+					"The key expression '" + this.keyExpression.getExpressionString() + "' evaluated to null");
+		}
+		int lane = Math.floorMod(key.hashCode(), this.lanes.size());
+		MessageHandler writer = this.writers.get(lane);
+		this.lanes.get(lane).execute(() -> write(writer, key, message));
+	}
+
+	private void write(MessageHandler writer, Object key, Message<?> message) {
+		try {
+			if (writer instanceof AbstractRegionWritingMessageHandler) {
+				((AbstractRegionWritingMessageHandler) writer).handleMessage(key, message);
+			}
+			else {
+				writer.handleMessage(message);
+			}
+		}
+		catch (RuntimeException e) {
+			logger.error("Failed to write message " + message, e);
+			if (this.deadLetters != null) {
+				this.deadLetters.send(message, e);
+			}
+		}
+	}
+
+	@Override
+	public void destroy() throws Exception {
+		for (ThreadPoolExecutor lane : this.lanes) {
+			lane.shutdown();
+		}
+		for (ThreadPoolExecutor lane : this.lanes) {
+			if (!lane.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+				logger.warn("Timed out waiting for a sink lane to drain");
+			}
+		}
+		for (MessageHandler writer : this.writers) {
+			MessageHandlers.destroy(writer);
+		}
+	}
+}
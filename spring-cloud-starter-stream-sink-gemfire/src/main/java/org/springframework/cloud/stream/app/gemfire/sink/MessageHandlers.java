@@ -0,0 +1,52 @@
+/*
+ * Copyright 2019 the original author or authors.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.gemfire.sink;
+
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.BeanFactoryAware;
+import org.springframework.beans.factory.BeanInitializationException;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.messaging.MessageHandler;
+
+/**
+ * Lifecycle callbacks for the region writers that are wrapped by another handler, and so are not beans themselves.
+ */
+abstract class MessageHandlers {
+
+	private MessageHandlers() {
+	}
+
+	static void initialize(MessageHandler messageHandler, BeanFactory beanFactory) {
+		if (messageHandler instanceof BeanFactoryAware) {
+			((BeanFactoryAware) messageHandler).setBeanFactory(beanFactory);
+		}
+		if (messageHandler instanceof InitializingBean) {
+			try {
+				((InitializingBean) messageHandler).afterPropertiesSet();
+			}
+			catch (Exception e) {
+				throw new BeanInitializationException("Failed to initialize " + messageHandler, e);
+			}
+		}
+	}
+
+	static void destroy(MessageHandler messageHandler) throws Exception {
+		if (messageHandler instanceof DisposableBean) {
+			((DisposableBean) messageHandler).destroy();
+		}
+	}
+}
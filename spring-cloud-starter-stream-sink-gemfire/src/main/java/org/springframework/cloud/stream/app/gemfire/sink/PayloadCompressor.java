@@ -0,0 +1,119 @@
+/*
+ * Copyright 2019 the original author or authors.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.gemfire.sink;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import org.springframework.cloud.stream.app.gemfire.CompressionEnvelope;
+import org.springframework.util.Assert;
+
+/**
+ * Compresses payloads of at least a threshold size into a {@link CompressionEnvelope}, which the sources decompress.
+ * Strings are measured by the length of their UTF-8 encoding.
+ *
+ * The time spent compressing is published as the {@code gemfire.sink.compression.time} timer and the ratio of the
+ * original to the compressed size of each value as the {@code gemfire.sink.compression.ratio} distribution summary.
+ * Values that do not shrink are stored as they are and counted by the {@code gemfire.sink.compression.incompressible}
+ * counter.
+ */
+class PayloadCompressor {
+
+	private final int threshold;
+
+	private final Timer time;
+
+	private final DistributionSummary ratio;
+
+	private final Counter incompressible;
+
+	/**
+	 * @param threshold the size in bytes from which payloads are compressed
+	 * @param meterRegistry the registry for the compression meters
+	 */
+	PayloadCompressor(int threshold, MeterRegistry meterRegistry) {
+		Assert.isTrue(threshold > 0, "'threshold' must be greater than 0");
+		this.threshold = threshold;
+		this.time = Timer.builder("gemfire.sink.compression.time")
+				.description("Time spent compressing values")
+				.register(meterRegistry);
+		this.ratio = DistributionSummary.builder("gemfire.sink.compression.ratio")
+				.description("Ratio of the original to the compressed size of values")
+				.register(meterRegistry);
+		this.incompressible = Counter.builder("gemfire.sink.compression.incompressible")
+				.description("Number of values stored uncompressed because they did not shrink")
+				.register(meterRegistry);
+	}
+
+	/**
+	 * @param content the kind of payload
+	 * @param payload a {@code byte[]}, {@link ByteBuffer} or String payload
+	 * @return the envelope, or null if the payload is of another type, smaller than the threshold or does not shrink
+	 */
+	byte[] compress(CompressionEnvelope.Content content, Object payload) {
+		byte[] bytes;
+		int offset = 0;
+		int length;
+		if (payload instanceof byte[]) {
+			bytes = (byte[]) payload;
+			length = bytes.length;
+		}
+		else if (payload instanceof ByteBuffer) {
+			ByteBuffer buffer = ((ByteBuffer) payload).duplicate();
+			length = buffer.remaining();
+			if (length < this.threshold) {
+				return null;
+			}
+			if (buffer.hasArray()) {
+				bytes = buffer.array();
+				offset = buffer.arrayOffset() + buffer.position();
+			}
+			else {
+				bytes = new byte[length];
+				buffer.get(bytes);
+			}
+		}
+		else if (payload instanceof String) {
+			// a UTF-8 encoding takes at most 3 bytes per char
+			if ((long) ((String) payload).length() * 3 < this.threshold) {
+				return null;
+			}
+			bytes = ((String) payload).getBytes(StandardCharsets.UTF_8);
+			length = bytes.length;
+		}
+		else {
+			return null;
+		}
+		if (length < this.threshold) {
+			return null;
+		}
+		long start = System.nanoTime();
+		byte[] envelope = CompressionEnvelope.wrap(content, bytes, offset, length);
+		this.time.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+		if (envelope == null) {
+			this.incompressible.increment();
+			return null;
+		}
+		this.ratio.record((double) length / envelope.length);
+		return envelope;
+	}
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2019 the original author or authors.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.gemfire.sink;
+
+import org.apache.geode.pdx.PdxInstance;
+
+import org.springframework.util.MimeType;
+
+/**
+ * Converts binary payloads of a given content type into {@link PdxInstance}s. In JSON mode, the sink selects the
+ * first converter that supports the {@code contentType} header of a message with a {@code byte[]} or
+ * {@code ByteBuffer} payload; other messages are read as JSON. Converter beans in the application context are
+ * consulted before the built-in CBOR, MessagePack and Avro converters.
+ */
+public interface PdxInstanceConverter {
+
+	/**
+	 * @param contentType the content type of a message
+	 * @return true if payloads of that content type are converted
+	 */
+	boolean supports(MimeType contentType);
+
+	/**
+	 * @param payload the array holding the encoded payload
+	 * @param offset the offset of the payload in the array
+	 * @param length the length of the payload
+	 * @return the PdxInstance
+	 * @throws org.springframework.messaging.converter.MessageConversionException if the payload cannot be converted
+	 */
+	PdxInstance convert(byte[] payload, int offset, int length);
+}
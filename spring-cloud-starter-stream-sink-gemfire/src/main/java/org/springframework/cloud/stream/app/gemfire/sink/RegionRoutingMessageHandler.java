@@ -0,0 +1,339 @@
+/*
+ * Copyright 2019 the original author or authors.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.gemfire.sink;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.geode.cache.Region;
+import org.apache.geode.cache.client.ClientCache;
+import org.apache.geode.cache.client.ClientRegionShortcut;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.expression.EvaluationContext;
+import org.springframework.expression.Expression;
+import org.springframework.integration.expression.ExpressionUtils;
+import org.springframework.integration.handler.AbstractMessageHandler;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.MessageHandlingException;
+import org.springframework.util.Assert;
+
+/**
+ * A {@link MessageHandler} that writes each message to the region named by a region expression. The client regions
+ * are created on demand as {@link ClientRegionShortcut#PROXY} regions on a shared pool, and each has its own region
+ * writer, so that batches are collected per region. At most a configured number of regions are kept open: when
+ * another region is needed, the least recently used one is flushed and closed on the client, which leaves the
+ * server region untouched. Regions that already existed in the client cache, such as the region bean, are reused
+ * and never closed.
+ *
+ * A region is closed by the thread that evicted it, outside the lock on the open regions, so that writes to other
+ * regions are not held up while its batch is flushed; a message for a region being closed waits until it is closed.
+ * Batching writers send a batch that fails to be flushed to the error channel themselves. Otherwise, as with the
+ * write-behind journal, the failure is thrown to the writer of the message that caused the eviction, once the region
+ * is closed, so that the journal is not committed and the batch is written again.
+ *
+ * The number of open regions is published as the {@code gemfire.sink.regions} gauge and evictions are counted by the
+ * {@code gemfire.sink.region.evictions} counter. The messages written to each region and the writes that failed are
+ * counted by the {@code gemfire.sink.region.messages} and {@code gemfire.sink.region.failures} counters, tagged with
+ * the region name; a region's counters are removed when it is closed.
+ */
+class RegionRoutingMessageHandler extends AbstractMessageHandler implements DisposableBean {
+
+	private final Expression regionExpression;
+
+	private final ClientCache clientCache;
+
+	private final String poolName;
+
+	private final Function<Region<String, ?>, MessageHandler> writerFactory;
+
+	private final int maxRegions;
+
+	private final MeterRegistry meterRegistry;
+
+	private final Counter evictions;
+
+	private final Map<String, RegionWriter> writers = new LinkedHashMap<>(16, 0.75f, true);
+
+	private final Map<String, RegionWriter> closing = new HashMap<>();
+
+	private EvaluationContext evaluationContext;
+
+	/**
+	 * @param regionExpression the expression evaluated against each message to obtain its region name
+	 * @param clientCache the cache the regions are created in
+	 * @param poolName the pool the regions are created on
+	 * @param writerFactory creates the region writer of each region
+	 * @param maxRegions the maximum number of regions kept open
+	 * @param meterRegistry the registry for the region meters
+	 */
+	RegionRoutingMessageHandler(Expression regionExpression, ClientCache clientCache, String poolName,
+			Function<Region<String, ?>, MessageHandler> writerFactory, int maxRegions, MeterRegistry meterRegistry) {
+		Assert.notNull(regionExpression, "'regionExpression' must not be null");
+		Assert.notNull(clientCache, "'clientCache' must not be null");
+		Assert.hasText(poolName, "'poolName' must not be empty");
+		Assert.notNull(writerFactory, "'writerFactory' must not be null");
+		Assert.isTrue(maxRegions > 0, "'maxRegions' must be greater than 0");
+		this.regionExpression = regionExpression;
+		this.clientCache = clientCache;
+		this.poolName = poolName;
+		this.writerFactory = writerFactory;
+		this.maxRegions = maxRegions;
+		this.meterRegistry = meterRegistry;
+		Gauge.builder("gemfire.sink.regions", this, RegionRoutingMessageHandler::getRegionCount)
+				.description("Number of regions kept open by the region expression")
+				.register(meterRegistry);
+		this.evictions = Counter.builder("gemfire.sink.region.evictions")
+				.description("Number of regions closed to make room for another region")
+				.register(meterRegistry);
+	}
+
+	@Override
+	public String getComponentType() {
+		return "gemfire:region-routing-outbound-channel-adapter";
+	}
+
+	@Override
+	protected void onInit() {
+		super.onInit();
+		this.evaluationContext = ExpressionUtils.createStandardEvaluationContext(getBeanFactory());
+	}
+
+	@Override
+	protected void handleMessageInternal(Message<?> message) {
+		Object regionName = this.regionExpression.getValue(this.evaluationContext, message);
+		if (regionName == null) {
+			throw new MessageHandlingException(message,
+					"The region expression '" + this.regionExpression.getExpressionString() + "' evaluated to null");
+		}
+		RegionWriter writer = writer(regionName.toString(), message);
+		while (!writer.write(message)) {
+			// the writer was evicted and closed by another thread after it was looked up; a closed writer is no
+			// longer open, so the lookup waits until the eviction is complete and returns a new writer
+			writer = writer(regionName.toString(), message);
+		}
+	}
+
+	/**
+	 * Write the current batch of each region, if any.
+	 */
+	void flush() {
+		List<RegionWriter> openWriters;
+		synchronized (this.writers) {
+			openWriters = new ArrayList<>(this.writers.values());
+		}
+		for (RegionWriter writer : openWriters) {
+			writer.flush();
+		}
+	}
+
+	int getRegionCount() {
+		synchronized (this.writers) {
+			return this.writers.size();
+		}
+	}
+
+	private RegionWriter writer(String regionName, Message<?> message) {
+		RegionWriter writer;
+		RegionWriter evicted = null;
+		synchronized (this.writers) {
+			writer = this.writers.get(regionName);
+			// the region of an evicted writer is not created again until it is closed
+			while (writer == null && this.closing.containsKey(regionName)) {
+				try {
+					this.writers.wait();
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new MessageHandlingException(message,
+							"Interrupted while waiting for region '" + regionName + "' to be closed", e);
+				}
+				writer = this.writers.get(regionName);
+			}
+			if (writer == null) {
+				try {
+					writer = new RegionWriter(regionName);
+				}
+				catch (RuntimeException e) {
+					throw new MessageHandlingException(message, "Failed to create region '" + regionName + "'", e);
+				}
+				this.writers.put(regionName, writer);
+				if (this.writers.size() > this.maxRegions) {
+					Iterator<Map.Entry<String, RegionWriter>> eldest = this.writers.entrySet().iterator();
+					Map.Entry<String, RegionWriter> entry = eldest.next();
+					eldest.remove();
+					evicted = entry.getValue();
+					this.closing.put(entry.getKey(), evicted);
+				}
+			}
+		}
+		if (evicted != null) {
+			close(evicted, message);
+		}
+		return writer;
+	}
+
+	private void close(RegionWriter evicted, Message<?> message) {
+		try {
+			evicted.close();
+		}
+		catch (Exception e) {
+			throw new MessageHandlingException(message,
+					"Failed to flush the writer of evicted region '" + evicted.getRegionName() + "'", e);
+		}
+		finally {
+			this.evictions.increment();
+			synchronized (this.writers) {
+				this.closing.remove(evicted.getRegionName());
+				this.writers.notifyAll();
+			}
+		}
+	}
+
+	@Override
+	public void destroy() {
+		List<RegionWriter> openWriters;
+		synchronized (this.writers) {
+			openWriters = new ArrayList<>(this.writers.values());
+			this.writers.clear();
+		}
+		for (RegionWriter writer : openWriters) {
+			try {
+				writer.close();
+			}
+			catch (Exception e) {
+				logger.error("Failed to flush the writer of region '" + writer.getRegionName() + "'", e);
+			}
+		}
+	}
+
+	/**
+	 * The region writer of a region. Messages are written under the read lock, so that a region is closed only
+	 * after the writes in progress have completed.
+	 */
+	private final class RegionWriter {
+
+		private final Region<String, ?> region;
+
+		private final boolean created;
+
+		private final MessageHandler writer;
+
+		private final Counter messages;
+
+		private final Counter failures;
+
+		private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+		private boolean closed;
+
+		RegionWriter(String regionName) {
+			Region<String, ?> existing = clientCache.getRegion(regionName);
+			this.created = existing == null;
+			this.region = this.created
+					? clientCache.<String, Object>createClientRegionFactory(ClientRegionShortcut.PROXY)
+							.setPoolName(poolName)
+							.create(regionName)
+					: existing;
+			this.writer = writerFactory.apply(this.region);
+			MessageHandlers.initialize(this.writer, getBeanFactory());
+			this.messages = Counter.builder("gemfire.sink.region.messages")
+					.description("Number of messages written to a region")
+					.tag("region", this.region.getName())
+					.register(meterRegistry);
+			this.failures = Counter.builder("gemfire.sink.region.failures")
+					.description("Number of messages that failed to be written to a region")
+					.tag("region", this.region.getName())
+					.register(meterRegistry);
+		}
+
+		/**
+		 * @param message the message
+		 * @return false if the writer was closed, and the message not written
+		 */
+		boolean write(Message<?> message) {
+			this.lock.readLock().lock();
+			try {
+				if (this.closed) {
+					return false;
+				}
+				try {
+					this.writer.handleMessage(message);
+				}
+				catch (RuntimeException e) {
+					this.failures.increment();
+					throw e;
+				}
+				this.messages.increment();
+				return true;
+			}
+			finally {
+				this.lock.readLock().unlock();
+			}
+		}
+
+		void flush() {
+			this.lock.readLock().lock();
+			try {
+				if (!this.closed && this.writer instanceof BatchingCacheWritingMessageHandler) {
+					((BatchingCacheWritingMessageHandler) this.writer).flush();
+				}
+			}
+			finally {
+				this.lock.readLock().unlock();
+			}
+		}
+
+		String getRegionName() {
+			return this.region.getName();
+		}
+
+		/**
+		 * Flush the writer and close the region, which is closed even if the flush fails.
+		 * @throws Exception if the flush failed
+		 */
+		void close() throws Exception {
+			this.lock.writeLock().lock();
+			try {
+				this.closed = true;
+				try {
+					MessageHandlers.destroy(this.writer);
+				}
+				finally {
+					if (this.created && !this.region.isDestroyed()) {
+						this.region.close();
+					}
+				}
+			}
+			finally {
+				this.lock.writeLock().unlock();
+				meterRegistry.remove(this.messages);
+				meterRegistry.remove(this.failures);
+			}
+		}
+	}
+}
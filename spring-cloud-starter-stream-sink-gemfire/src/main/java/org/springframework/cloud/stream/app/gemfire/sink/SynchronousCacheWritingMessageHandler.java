@@ -0,0 +1,73 @@
+/*
+ * Copyright 2019 the original author or authors.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.gemfire.sink;
+
+import java.util.Map;
+
+import org.apache.geode.cache.Region;
+
+import org.springframework.expression.Expression;
+import org.springframework.messaging.Message;
+
+/**
+ * A {@link org.springframework.messaging.MessageHandler} that writes each entry to the region on the calling thread,
+ * or removes it if the payload is a {@link Tombstone}. Used in place of the Spring Integration
+ * {@link org.springframework.integration.gemfire.outbound.CacheWritingMessageHandler} when deletes or raw mode are
+ * enabled, so that the payload is put as is rather than through an expression evaluated into a single entry map,
+ * and as the writer of each lane, which is given the key the lane already evaluated.
+ *
+ * When fan-out is enabled, a {@link Map} payload holds several entries, which are written with a single
+ * {@link Region#putAll(Map)}.
+ */
+class SynchronousCacheWritingMessageHandler extends AbstractRegionWritingMessageHandler {
+
+	private boolean fanOut;
+
+	SynchronousCacheWritingMessageHandler(Region<?, ?> region, Expression keyExpression) {
+		super(region, keyExpression);
+	}
+
+	/**
+	 * @param fanOut whether {@link Map} payloads hold the entries to write rather than a single value
+	 */
+	void setFanOut(boolean fanOut) {
+		this.fanOut = fanOut;
+	}
+
+	@Override
+	public String getComponentType() {
+		return "gemfire:outbound-channel-adapter";
+	}
+
+	@Override
+	protected void handleMessageInternal(Message<?> message) {
+		// the key expression does not apply to the entries of a fanned out payload
+		if (this.fanOut && message.getPayload() instanceof Map) {
+			getRegion().putAll((Map<?, ?>) message.getPayload());
+			return;
+		}
+		super.handleMessageInternal(message);
+	}
+
+	@Override
+	protected void handleMessageInternal(Object key, Message<?> message) {
+		if (this.fanOut && message.getPayload() instanceof Map) {
+			getRegion().putAll((Map<?, ?>) message.getPayload());
+			return;
+		}
+		write(key, message.getPayload());
+	}
+}
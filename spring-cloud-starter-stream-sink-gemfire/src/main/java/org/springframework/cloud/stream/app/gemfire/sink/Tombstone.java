@@ -0,0 +1,72 @@
+/*
+ * Copyright 2019 the original author or authors.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.gemfire.sink;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The payload that replaces the payload of messages matching the delete expression. Writers remove the entry for the
+ * key of a tombstone instead of writing a value; batching writers collect the keys of the tombstones in a batch and
+ * remove them with a single {@link org.apache.geode.cache.Region#removeAll(java.util.Collection)}. Tombstones are
+ * serializable so that they can be stored in the {@link WriteBehindJournal}.
+ */
+final class Tombstone implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	static final Tombstone INSTANCE = new Tombstone();
+
+	private Tombstone() {
+	}
+
+	static boolean isTombstone(Object value) {
+		return value == INSTANCE;
+	}
+
+	/**
+	 * Remove the tombstones from a batch.
+	 * @param batch the batch, which then only contains the entries to write
+	 * @return the keys of the entries to remove
+	 */
+	static List<Object> extract(Map<Object, Object> batch) {
+		List<Object> keys = null;
+		for (Iterator<Map.Entry<Object, Object>> iterator = batch.entrySet().iterator(); iterator.hasNext(); ) {
+			Map.Entry<Object, Object> entry = iterator.next();
+			if (isTombstone(entry.getValue())) {
+				if (keys == null) {
+					keys = new ArrayList<>();
+				}
+				keys.add(entry.getKey());
+				iterator.remove();
+			}
+		}
+		return keys != null ? keys : Collections.emptyList();
+	}
+
+	private Object readResolve() {
+		return INSTANCE;
+	}
+
+	@Override
+	public String toString() {
+		return "Tombstone";
+	}
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2019 the original author or authors.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.gemfire.sink;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.geode.cache.CacheTransactionManager;
+import org.apache.geode.cache.CommitConflictException;
+import org.apache.geode.cache.Region;
+
+import org.springframework.expression.Expression;
+import org.springframework.messaging.Message;
+import org.springframework.util.Assert;
+
+/**
+ * A {@link BatchingCacheWritingMessageHandler} that writes each batch, tombstones included, in a single transaction
+ * of the {@link CacheTransactionManager}, so that either all of its entries are applied or none is. A message whose
+ * payload is a {@link Map} fans out to one entry per map entry, keyed by the map key, and its entries are always
+ * written in the same transaction.
+ *
+ * A commit that fails with a {@link CommitConflictException}, because another member changed one of the keys in the
+ * meantime, is retried with a new transaction up to the configured number of times. Other failures, including a
+ * {@link org.apache.geode.cache.TransactionInDoubtException}, are not retried. On a partitioned region all the keys
+ * of a transaction must be hosted by the same member, which requires the keys of a batch to be colocated, for
+ * example with a {@link org.apache.geode.cache.PartitionResolver} on the servers.
+ *
+ * Committed transactions and commit conflicts are counted by the {@code gemfire.sink.transactions.committed} and
+ * {@code gemfire.sink.transactions.conflicts} counters.
+ */
+class TransactionalCacheWritingMessageHandler extends BatchingCacheWritingMessageHandler {
+
+	private final CacheTransactionManager transactionManager;
+
+	private final int maxRetries;
+
+	private final Counter committed;
+
+	private final Counter conflicts;
+
+	/**
+	 * @param region the region
+	 * @param keyExpression the key expression of messages that do not fan out
+	 * @param batchSize the maximum number of entries in a transaction
+	 * @param batchTimeout the time in ms after which an incomplete batch is committed, or 0 to never commit it on a
+	 * timeout
+	 * @param transactionManager the transaction manager of the region's cache
+	 * @param maxRetries the number of times a commit conflict is retried
+	 * @param meterRegistry the registry for the transaction meters
+	 */
+	TransactionalCacheWritingMessageHandler(Region<?, ?> region, Expression keyExpression, int batchSize,
+			long batchTimeout, CacheTransactionManager transactionManager, int maxRetries,
+			MeterRegistry meterRegistry) {
+		super(region, keyExpression, batchSize, batchTimeout);
+		Assert.notNull(transactionManager, "'transactionManager' must not be null");
+		Assert.isTrue(maxRetries >= 0, "'maxRetries' must not be negative");
+		this.transactionManager = transactionManager;
+		this.maxRetries = maxRetries;
+		this.committed = Counter.builder("gemfire.sink.transactions.committed")
+				.description("Number of batches committed in a transaction")
+				.register(meterRegistry);
+		this.conflicts = Counter.builder("gemfire.sink.transactions.conflicts")
+				.description("Number of transaction commits that failed with a conflict")
+				.register(meterRegistry);
+	}
+
+	@Override
+	public String getComponentType() {
+		return "gemfire:transactional-outbound-channel-adapter";
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	protected Map<Object, Object> entries(Message<?> message) {
+		if (message.getPayload() instanceof Map) {
+			return (Map<Object, Object>) message.getPayload();
+		}
+		return super.entries(message);
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	protected Map<Object, Object> entries(Object key, Message<?> message) {
+		if (message.getPayload() instanceof Map) {
+			return (Map<Object, Object>) message.getPayload();
+		}
+		return super.entries(key, message);
+	}
+
+	@Override
+	protected void writeEntries(Map<Object, Object> batch) {
+		for (int attempt = 0; ; attempt++) {
+			this.transactionManager.begin();
+			try {
+				// the tombstones are extracted from a copy, so that a retry writes the whole batch again
+				super.writeEntries(new LinkedHashMap<>(batch));
+			}
+			catch (RuntimeException e) {
+				if (this.transactionManager.exists()) {
+					this.transactionManager.rollback();
+				}
+				throw e;
+			}
+			try {
+				this.transactionManager.commit();
+				this.committed.increment();
+				return;
+			}
+			catch (CommitConflictException e) {
+				this.conflicts.increment();
+				if (attempt >= this.maxRetries) {
+					throw e;
+				}
+				if (logger.isDebugEnabled()) {
+					logger.debug("Retrying a transaction of " + batch.size() + " entries after a commit conflict", e);
+				}
+			}
+		}
+	}
+}
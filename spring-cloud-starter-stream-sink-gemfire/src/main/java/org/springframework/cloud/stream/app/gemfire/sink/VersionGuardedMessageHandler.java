@@ -0,0 +1,106 @@
+/*
+ * Copyright 2019 the original author or authors.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.gemfire.sink;
+
+import java.math.BigDecimal;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.geode.cache.Region;
+
+import org.springframework.expression.Expression;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHandlingException;
+import org.springframework.util.Assert;
+
+/**
+ * A {@link org.springframework.messaging.MessageHandler} that writes an entry only if it is newer than the value
+ * stored in the region. The version expression is evaluated against both the incoming payload and the stored value;
+ * the write is skipped when the incoming version is not greater than the stored one. Numeric versions are compared by
+ * value regardless of their type, since JSON documents store small numbers as byte or short fields; other versions
+ * must be {@link Comparable} instances of the same type.
+ *
+ * The check and the write are made atomic with {@link Region#putIfAbsent(Object, Object)} and
+ * {@link Region#replace(Object, Object, Object)}, retrying if the stored value changed in between. Skipped writes are
+ * counted by the {@code gemfire.sink.writes.stale} counter.
+ */
+class VersionGuardedMessageHandler extends AbstractRegionWritingMessageHandler {
+
+	private final Expression versionExpression;
+
+	private final Counter staleWrites;
+
+	VersionGuardedMessageHandler(Region<?, ?> region, Expression keyExpression, Expression versionExpression,
+			MeterRegistry meterRegistry) {
+		super(region, keyExpression);
+		Assert.notNull(versionExpression, "'versionExpression' must not be null");
+		this.versionExpression = versionExpression;
+		this.staleWrites = Counter.builder("gemfire.sink.writes.stale")
+				.description("Number of writes skipped because the stored value has the same or a newer version")
+				.tag("region", region.getName())
+				.register(meterRegistry);
+	}
+
+	@Override
+	public String getComponentType() {
+		return "gemfire:version-guarded-outbound-channel-adapter";
+	}
+
+	@Override
+	protected void handleMessageInternal(Object key, Message<?> message) {
+		Object value = message.getPayload();
+		Object version = this.versionExpression.getValue(getEvaluationContext(), value);
+		if (version == null) {
+			throw new MessageHandlingException(message,
+					"The version expression '" + this.versionExpression.getExpressionString() + "' evaluated to null");
+		}
+		Region<Object, Object> region = getRegion();
+		while (true) {
+			Object current = region.get(key);
+			if (current == null) {
+				if (region.putIfAbsent(key, value) == null) {
+					return;
+				}
+				continue;
+			}
+			Object currentVersion = this.versionExpression.getValue(getEvaluationContext(), current);
+			if (currentVersion != null && compare(message, version, currentVersion) <= 0) {
+				this.staleWrites.increment();
+				if (logger.isDebugEnabled()) {
+					logger.debug("Skipping stale write of key '" + key + "' with version " + version
+							+ ", the stored version is " + currentVersion);
+				}
+				return;
+			}
+			if (region.replace(key, current, value)) {
+				return;
+			}
+		}
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static int compare(Message<?> message, Object version, Object currentVersion) {
+		if (version instanceof Number && currentVersion instanceof Number) {
+			return new BigDecimal(version.toString()).compareTo(new BigDecimal(currentVersion.toString()));
+		}
+		if (version instanceof Comparable && version.getClass().isInstance(currentVersion)) {
+			return ((Comparable) version).compareTo(currentVersion);
+		}
+		throw new MessageHandlingException(message, "Cannot compare version " + version + " of type "
+				+ version.getClass().getName() + " with stored version " + currentVersion + " of type "
+				+ currentVersion.getClass().getName());
+	}
+}
@@ -0,0 +1,490 @@
+/*
+ * Copyright 2019 the original author or authors.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.gemfire.sink;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHandlingException;
+import org.springframework.util.Assert;
+
+/**
+ * An append-only journal of messages on local disk, used by the sink to accept writes while the cluster is
+ * unreachable. Messages are Java serialized and appended to memory-mapped segment files of a fixed size; a single
+ * consumer reads them back in order, and commits what it has written to the region. Segments that have been read
+ * entirely are deleted when the read position is committed.
+ *
+ * Each record is stored as its length, a CRC32 checksum and the serialized message. The length is written last, so a
+ * record interrupted by a crash is never read. The committed read position is kept in a small memory-mapped
+ * checkpoint file. On open, segments before the checkpoint are deleted, the remaining segments are scanned up to the
+ * first incomplete or corrupt record, and reading resumes at the checkpoint: messages read but not committed before a
+ * crash are read again. A record that is found corrupt or cannot be deserialized when it is read is logged and
+ * skipped, since reading it again would block the journal. Mapped pages are flushed by the operating system, so
+ * records survive a crash of the process; they are forced to disk when a segment is full and when the journal is
+ * closed.
+ *
+ * The journal holds at most {@code maxSegments} segments. When they are full, {@link #append(Message)} blocks until
+ * the consumer has committed a segment. The number of pending messages and of segments are published as the
+ * {@code gemfire.sink.journal.records} and {@code gemfire.sink.journal.segments} gauges, and skipped records are
+ * counted by the {@code gemfire.sink.journal.records.skipped} counter.
+ */
+class WriteBehindJournal implements Closeable {
+
+	private static final Log logger = LogFactory.getLog(WriteBehindJournal.class);
+
+	private static final String SEGMENT_SUFFIX = ".log";
+
+	private static final String CHECKPOINT_FILE = "checkpoint";
+
+	private static final int HEADER_SIZE = 8;
+
+	private static final int END_OF_SEGMENT = -1;
+
+	private final File directory;
+
+	private final int segmentSize;
+
+	private final int maxSegments;
+
+	private final Lock lock = new ReentrantLock();
+
+	private final Condition notFull = this.lock.newCondition();
+
+	private final Condition notEmpty = this.lock.newCondition();
+
+	private final Deque<Segment> segments = new ArrayDeque<>();
+
+	private final CRC32 crc = new CRC32();
+
+	private final Counter skippedRecords;
+
+	private MappedByteBuffer checkpoint;
+
+	private long committedSegmentId;
+
+	private int committedOffset;
+
+	private long readSegmentId;
+
+	private int readOffset;
+
+	private long uncommittedRecords;
+
+	private volatile long pendingRecords;
+
+	/**
+	 * @param directory the directory holding the segment files
+	 * @param segmentSize the size of each segment file in bytes
+	 * @param maxSegments the maximum number of segment files
+	 * @param meterRegistry the registry for the journal gauges
+	 */
+	WriteBehindJournal(File directory, int segmentSize, int maxSegments, MeterRegistry meterRegistry) {
+		Assert.notNull(directory, "'directory' must not be null");
+		Assert.isTrue(segmentSize > HEADER_SIZE * 2, "'segmentSize' is too small");
+		Assert.isTrue(maxSegments > 1, "'maxSegments' must be greater than 1");
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		this.maxSegments = maxSegments;
+		Gauge.builder("gemfire.sink.journal.records", this, journal -> journal.pendingRecords)
+				.description("Number of messages in the write-behind journal waiting to be written to the region")
+				.register(meterRegistry);
+		Gauge.builder("gemfire.sink.journal.segments", this.segments, Deque::size)
+				.description("Number of segment files of the write-behind journal")
+				.register(meterRegistry);
+		this.skippedRecords = Counter.builder("gemfire.sink.journal.records.skipped")
+				.description("Number of corrupt or undeserializable records skipped in the write-behind journal")
+				.register(meterRegistry);
+	}
+
+	/**
+	 * Open the journal, recovering the segments and the read position left by a previous run.
+	 * @throws IOException if the journal files cannot be read or created
+	 */
+	void open() throws IOException {
+		if (!this.directory.isDirectory() && !this.directory.mkdirs()) {
+			throw new IOException("Cannot create the journal directory " + this.directory);
+		}
+		try (RandomAccessFile file = new RandomAccessFile(new File(this.directory, CHECKPOINT_FILE), "rw")) {
+			this.checkpoint = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, 12);
+		}
+		this.committedSegmentId = this.checkpoint.getLong(0);
+		this.committedOffset = this.checkpoint.getInt(8);
+		List<Long> segmentIds = new ArrayList<>();
+		File[] files = this.directory.listFiles((dir, name) -> name.endsWith(SEGMENT_SUFFIX));
+		if (files != null) {
+			for (File file : files) {
+				String name = file.getName();
+				segmentIds.add(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())));
+			}
+		}
+		Collections.sort(segmentIds);
+		for (long id : segmentIds) {
+			if (id < this.committedSegmentId) {
+				delete(segmentFile(id));
+			}
+			else {
+				this.segments.addLast(recover(id));
+			}
+		}
+		if (this.segments.isEmpty() || this.segments.peekFirst().id != this.committedSegmentId) {
+			this.committedSegmentId = this.segments.isEmpty() ? this.committedSegmentId : this.segments.peekFirst().id;
+			this.committedOffset = 0;
+		}
+		if (this.segments.isEmpty()) {
+			this.segments.addLast(createSegment(this.committedSegmentId));
+		}
+		this.readSegmentId = this.committedSegmentId;
+		this.readOffset = this.committedOffset;
+		this.pendingRecords -= countRecords(this.segments.peekFirst(), this.committedOffset);
+		zeroFill(this.segments.peekLast());
+		if (this.pendingRecords > 0) {
+			logger.info("Recovered " + this.pendingRecords + " messages from the write-behind journal in "
+					+ this.directory);
+		}
+	}
+
+	/**
+	 * Append a message to the journal, waiting while the journal is full.
+	 * @param message the message
+	 */
+	void append(Message<?> message) {
+		byte[] record = serialize(message);
+		if (record.length > this.segmentSize - HEADER_SIZE * 2) {
+			throw new MessageHandlingException(message, "The message is too large for the journal segment size");
+		}
+		this.lock.lock();
+		try {
+			Segment tail = this.segments.peekLast();
+			while (tail.end + HEADER_SIZE + record.length > this.segmentSize) {
+				if (this.segments.size() >= this.maxSegments) {
+					this.notFull.await();
+					tail = this.segments.peekLast();
+					continue;
+				}
+				tail.seal();
+				tail = createSegment(tail.id + 1);
+				this.segments.addLast(tail);
+			}
+			ByteBuffer buffer = tail.buffer.duplicate();
+			buffer.position(tail.end + HEADER_SIZE);
+			buffer.put(record);
+			tail.buffer.putInt(tail.end + 4, checksum(record));
+			tail.buffer.putInt(tail.end, record.length);
+			tail.end += HEADER_SIZE + record.length;
+			this.pendingRecords++;
+			this.notEmpty.signal();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new MessageHandlingException(message, "Interrupted while waiting for space in the journal", e);
+		}
+		catch (IOException e) {
+			throw new MessageHandlingException(message, "Failed to create a journal segment", e);
+		}
+		finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * Read the next messages after the current read position, waiting up to the timeout if there are none.
+	 * @param maxMessages the maximum number of messages to read
+	 * @param timeout the maximum time to wait in milliseconds
+	 * @return the messages, empty if none were appended within the timeout
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	List<Message<?>> read(int maxMessages, long timeout) throws InterruptedException {
+		List<Message<?>> messages = new ArrayList<>();
+		this.lock.lock();
+		try {
+			if (!hasUnread()) {
+				this.notEmpty.await(timeout, TimeUnit.MILLISECONDS);
+			}
+			while (messages.size() < maxMessages && hasUnread()) {
+				Segment segment = readSegment();
+				int offset = this.readOffset;
+				int length = segment.buffer.getInt(offset);
+				this.uncommittedRecords++;
+				if (length <= 0 || offset + HEADER_SIZE + length > segment.end) {
+					// the records that follow cannot be located, so the rest of the segment is skipped
+					this.readOffset = segment.end;
+					skip(segment, offset, "its length " + length + " is invalid", null);
+					continue;
+				}
+				byte[] record = new byte[length];
+				ByteBuffer buffer = segment.buffer.duplicate();
+				buffer.position(offset + HEADER_SIZE);
+				buffer.get(record);
+				this.readOffset += HEADER_SIZE + length;
+				if (checksum(record) != segment.buffer.getInt(offset + 4)) {
+					skip(segment, offset, "its checksum does not match", null);
+					continue;
+				}
+				try {
+					messages.add(deserialize(record));
+				}
+				catch (IllegalStateException e) {
+					skip(segment, offset, "it cannot be deserialized", e);
+				}
+			}
+		}
+		finally {
+			this.lock.unlock();
+		}
+		return messages;
+	}
+
+	/**
+	 * Commit the read position, deleting the segments that have been read entirely.
+	 */
+	void commit() {
+		this.lock.lock();
+		try {
+			while (this.segments.peekFirst().id < this.readSegmentId) {
+				delete(this.segments.removeFirst().file);
+			}
+			this.committedSegmentId = this.readSegmentId;
+			this.committedOffset = this.readOffset;
+			this.checkpoint.putLong(0, this.committedSegmentId);
+			this.checkpoint.putInt(8, this.committedOffset);
+			this.pendingRecords -= this.uncommittedRecords;
+			this.uncommittedRecords = 0;
+			this.notFull.signalAll();
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * Move the read position back to the last committed position, so that the uncommitted messages are read again.
+	 */
+	void rewind() {
+		this.lock.lock();
+		try {
+			this.readSegmentId = this.committedSegmentId;
+			this.readOffset = this.committedOffset;
+			this.uncommittedRecords = 0;
+		}
+		finally {
+			this.lock.unlock();
+		}
+	}
+
+	long getPendingRecords() {
+		return this.pendingRecords;
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.lock.lock();
+		try {
+			for (Segment segment : this.segments) {
+				segment.buffer.force();
+			}
+			if (this.checkpoint != null) {
+				this.checkpoint.force();
+			}
+		}
+		finally {
+			this.lock.unlock();
+		}
+	}
+
+	private void skip(Segment segment, int offset, String reason, Exception cause) {
+		this.skippedRecords.increment();
+		logger.error("Skipping the record at offset " + offset + " of journal segment " + segment.file + " because "
+				+ reason, cause);
+	}
+
+	/**
+	 * Whether a record follows the read position, moving the read position to the next segment at the end of a
+	 * sealed segment.
+	 */
+	private boolean hasUnread() {
+		Segment segment = readSegment();
+		while (this.readOffset >= segment.end && segment != this.segments.peekLast()) {
+			this.readSegmentId++;
+			this.readOffset = 0;
+			segment = readSegment();
+		}
+		return this.readOffset < segment.end;
+	}
+
+	private Segment readSegment() {
+		for (Segment segment : this.segments) {
+			if (segment.id == this.readSegmentId) {
+				return segment;
+			}
+		}
+		throw new IllegalStateException("Journal segment " + this.readSegmentId + " is missing");
+	}
+
+	private Segment recover(long id) throws IOException {
+		Segment segment = openSegment(id);
+		int position = 0;
+		int records = 0;
+		while (position + HEADER_SIZE <= this.segmentSize) {
+			int length = segment.buffer.getInt(position);
+			if (length <= 0 || position + HEADER_SIZE + length > this.segmentSize) {
+				break;
+			}
+			byte[] record = new byte[length];
+			ByteBuffer buffer = segment.buffer.duplicate();
+			buffer.position(position + HEADER_SIZE);
+			buffer.get(record);
+			if (checksum(record) != segment.buffer.getInt(position + 4)) {
+				logger.warn("Discarding corrupt record at offset " + position + " of journal segment " + segment.file
+						+ " and the records after it");
+				break;
+			}
+			position += HEADER_SIZE + length;
+			records++;
+		}
+		segment.end = position;
+		this.pendingRecords += records;
+		return segment;
+	}
+
+	private int countRecords(Segment segment, int endOffset) {
+		int records = 0;
+		for (int position = 0; position < endOffset && position < segment.end; records++) {
+			position += HEADER_SIZE + segment.buffer.getInt(position);
+		}
+		return records;
+	}
+
+	/**
+	 * Clear what follows the last valid record of the tail segment, so that the remains of a record interrupted by a
+	 * crash cannot be mistaken for a record once new records have been appended.
+	 */
+	private void zeroFill(Segment segment) {
+		byte[] zeros = new byte[8192];
+		ByteBuffer buffer = segment.buffer.duplicate();
+		buffer.position(segment.end);
+		while (buffer.hasRemaining()) {
+			buffer.put(zeros, 0, Math.min(zeros.length, buffer.remaining()));
+		}
+	}
+
+	private Segment createSegment(long id) throws IOException {
+		Segment segment = openSegment(id);
+		segment.end = 0;
+		return segment;
+	}
+
+	private Segment openSegment(long id) throws IOException {
+		File file = segmentFile(id);
+		try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+			FileChannel channel = randomAccessFile.getChannel();
+			return new Segment(id, file, channel.map(FileChannel.MapMode.READ_WRITE, 0, this.segmentSize));
+		}
+	}
+
+	private File segmentFile(long id) {
+		return new File(this.directory, String.format("%020d%s", id, SEGMENT_SUFFIX));
+	}
+
+	private int checksum(byte[] record) {
+		this.crc.reset();
+		this.crc.update(record, 0, record.length);
+		return (int) this.crc.getValue();
+	}
+
+	private static void delete(File file) throws IOException {
+		if (!file.delete() && file.exists()) {
+			throw new IOException("Cannot delete journal segment " + file);
+		}
+	}
+
+	private static byte[] serialize(Message<?> message) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(message);
+		}
+		catch (IOException e) {
+			throw new MessageHandlingException(message, "Failed to serialize the message for the journal", e);
+		}
+		return bytes.toByteArray();
+	}
+
+	private static Message<?> deserialize(byte[] record) {
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(record))) {
+			return (Message<?>) in.readObject();
+		}
+		catch (IOException | ClassNotFoundException e) {
+			throw new IllegalStateException("Failed to deserialize a message from the journal", e);
+		}
+	}
+
+	/**
+	 * A mapped segment file. A mapping remains valid after its channel is closed, so the channel is closed as soon as
+	 * the file has been mapped; the mapping is released when the buffer is garbage collected.
+	 */
+	private static final class Segment {
+
+		private final long id;
+
+		private final File file;
+
+		private final MappedByteBuffer buffer;
+
+		private int end;
+
+		Segment(long id, File file, MappedByteBuffer buffer) {
+			this.id = id;
+			this.file = file;
+			this.buffer = buffer;
+		}
+
+		void seal() {
+			if (this.end + 4 <= this.buffer.capacity()) {
+				this.buffer.putInt(this.end, END_OF_SEGMENT);
+			}
+			this.buffer.force();
+		}
+	}
+}
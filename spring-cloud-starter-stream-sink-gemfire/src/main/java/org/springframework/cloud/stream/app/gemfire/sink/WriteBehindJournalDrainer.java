@@ -0,0 +1,183 @@
+/*
+ * Copyright 2019 the original author or authors.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.gemfire.sink;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.context.SmartLifecycle;
+import org.springframework.integration.transformer.MessageTransformationException;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.converter.MessageConversionException;
+import org.springframework.util.Assert;
+
+/**
+ * Replays the {@link WriteBehindJournal} into the region on a background thread. Messages are read in batches and
+ * passed to the sink's writer; once the whole batch has been written, and flushed if the writer batches, the journal
+ * read position is committed. If the cluster cannot be reached, the batch is read again after the retry interval for
+ * as long as it takes, so every message is written at least once. Any other failure is retried
+ * {@value #MAX_ATTEMPTS} times; the batch is then written one message at a time, and the messages that still fail
+ * are logged and skipped, since retrying them would block the journal. Messages whose payload cannot be converted
+ * are skipped at once.
+ *
+ * The drainer stops before the region and the pool are closed; messages left in the journal are written after the
+ * next start.
+ */
+class WriteBehindJournalDrainer implements SmartLifecycle {
+
+	private static final Log logger = LogFactory.getLog(WriteBehindJournalDrainer.class);
+
+	private static final long POLL_TIMEOUT = 1000;
+
+	static final int MAX_ATTEMPTS = 3;
+
+	private final WriteBehindJournal journal;
+
+	private final Consumer<Message<?>> writer;
+
+	private final Runnable flush;
+
+	private final int batchSize;
+
+	private final long retryInterval;
+
+	private volatile Thread thread;
+
+	/**
+	 * @param journal the journal
+	 * @param writer converts and writes a message to the region
+	 * @param flush writes the entries the writer has buffered, if any
+	 * @param batchSize the maximum number of messages read from the journal at once
+	 * @param retryInterval the time in milliseconds to wait before retrying a batch that failed
+	 */
+	WriteBehindJournalDrainer(WriteBehindJournal journal, Consumer<Message<?>> writer, Runnable flush, int batchSize,
+			long retryInterval) {
+		Assert.notNull(journal, "'journal' must not be null");
+		Assert.notNull(writer, "'writer' must not be null");
+		Assert.notNull(flush, "'flush' must not be null");
+		Assert.isTrue(batchSize > 0, "'batchSize' must be greater than 0");
+		this.journal = journal;
+		this.writer = writer;
+		this.flush = flush;
+		this.batchSize = batchSize;
+		this.retryInterval = retryInterval;
+	}
+
+	@Override
+	public synchronized void start() {
+		if (this.thread == null) {
+			this.thread = new Thread(this::drain, "gemfire-sink-journal-drainer");
+			this.thread.setDaemon(true);
+			this.thread.start();
+		}
+	}
+
+	@Override
+	public synchronized void stop() {
+		Thread thread = this.thread;
+		if (thread != null) {
+			this.thread = null;
+			thread.interrupt();
+			try {
+				thread.join(POLL_TIMEOUT * 10);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	@Override
+	public boolean isRunning() {
+		return this.thread != null;
+	}
+
+	private void drain() {
+		Thread current = Thread.currentThread();
+		int failedAttempts = 0;
+		while (this.thread == current) {
+			try {
+				List<Message<?>> messages = this.journal.read(this.batchSize, POLL_TIMEOUT);
+				if (messages.isEmpty()) {
+					continue;
+				}
+				try {
+					if (failedAttempts < MAX_ATTEMPTS) {
+						writeBatch(messages);
+					}
+					else {
+						writeEach(messages);
+					}
+					this.journal.commit();
+					failedAttempts = 0;
+				}
+				catch (RuntimeException e) {
+					this.journal.rewind();
+					if (!ConnectivityFailures.isConnectivityFailure(e)) {
+						failedAttempts++;
+					}
+					logger.warn("Failed to write " + messages.size() + " messages from the journal, retrying in "
+							+ this.retryInterval + " ms", e);
+					Thread.sleep(this.retryInterval);
+				}
+			}
+			catch (InterruptedException e) {
+				this.journal.rewind();
+				return;
+			}
+		}
+		this.journal.rewind();
+	}
+
+	private void writeBatch(List<Message<?>> messages) {
+		for (Message<?> message : messages) {
+			write(message);
+		}
+		this.flush.run();
+	}
+
+	/**
+	 * Write and flush the messages of a batch that keeps failing one at a time, skipping those that fail for a reason
+	 * other than connectivity.
+	 */
+	private void writeEach(List<Message<?>> messages) {
+		for (Message<?> message : messages) {
+			try {
+				write(message);
+				this.flush.run();
+			}
+			catch (RuntimeException e) {
+				if (ConnectivityFailures.isConnectivityFailure(e)) {
+					throw e;
+				}
+				logger.error("Skipping journal message " + message + " that failed to be written "
+						+ (MAX_ATTEMPTS + 1) + " times", e);
+			}
+		}
+	}
+
+	private void write(Message<?> message) {
+		try {
+			this.writer.accept(message);
+		}
+		catch (MessageConversionException | MessageTransformationException e) {
+			logger.error("Skipping journal message " + message + " that cannot be converted", e);
+		}
+	}
+}
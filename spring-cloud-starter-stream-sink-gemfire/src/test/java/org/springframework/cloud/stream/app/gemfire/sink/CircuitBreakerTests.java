@@ -0,0 +1,161 @@
+/*
+ * Copyright 2019 the original author or authors.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.gemfire.sink;
+
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.geode.cache.client.NoAvailableServersException;
+import org.junit.Test;
+
+import org.springframework.messaging.MessageHandlingException;
+import org.springframework.messaging.support.GenericMessage;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+
+public class CircuitBreakerTests {
+
+	private static final long FAST = TimeUnit.MILLISECONDS.toNanos(1);
+
+	private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(200);
+
+	private final CircuitBreaker circuitBreaker = new CircuitBreaker(50, 80, 100, 10, 4, 100, 2);
+
+	@Test
+	public void testOpensOnFailureRate() {
+		record(FAST, false);
+		record(FAST, true);
+		record(FAST, false);
+		assertThat(circuitBreaker.getState(), equalTo(CircuitBreaker.State.CLOSED));
+		record(FAST, true);
+		assertThat(circuitBreaker.getState(), equalTo(CircuitBreaker.State.OPEN));
+		assertThat(circuitBreaker.tryAcquirePermission(), equalTo(false));
+	}
+
+	@Test
+	public void testOpensOnSlowCallRate() {
+		for (int i = 0; i < 4; i++) {
+			record(SLOW, false);
+		}
+		assertThat(circuitBreaker.getState(), equalTo(CircuitBreaker.State.OPEN));
+	}
+
+	@Test
+	public void testOldOutcomesLeaveTheWindow() {
+		for (int i = 0; i < 4; i++) {
+			record(FAST, i == 0);
+		}
+		for (int i = 0; i < 20; i++) {
+			record(FAST, false);
+		}
+		record(FAST, true);
+		record(FAST, true);
+		record(FAST, true);
+		record(FAST, true);
+		assertThat(circuitBreaker.getState(), equalTo(CircuitBreaker.State.CLOSED));
+		record(FAST, true);
+		assertThat(circuitBreaker.getState(), equalTo(CircuitBreaker.State.OPEN));
+	}
+
+	@Test
+	public void testHalfOpenTrialCallsClose() throws InterruptedException {
+		open();
+		Thread.sleep(150);
+		assertThat(circuitBreaker.tryAcquirePermission(), equalTo(true));
+		assertThat(circuitBreaker.getState(), equalTo(CircuitBreaker.State.HALF_OPEN));
+		assertThat(circuitBreaker.tryAcquirePermission(), equalTo(true));
+		assertThat(circuitBreaker.tryAcquirePermission(), equalTo(false));
+		circuitBreaker.onResult(FAST, false);
+		circuitBreaker.onResult(FAST, false);
+		assertThat(circuitBreaker.getState(), equalTo(CircuitBreaker.State.CLOSED));
+	}
+
+	@Test
+	public void testHalfOpenTrialCallsReopen() throws InterruptedException {
+		open();
+		Thread.sleep(150);
+		record(FAST, true);
+		record(FAST, false);
+		assertThat(circuitBreaker.getState(), equalTo(CircuitBreaker.State.OPEN));
+	}
+
+	private void open() {
+		for (int i = 0; i < 4; i++) {
+			record(FAST, true);
+		}
+		assertThat(circuitBreaker.getState(), equalTo(CircuitBreaker.State.OPEN));
+	}
+
+	@Test
+	public void testReleasedTrialCallIsPermittedAgain() throws InterruptedException {
+		open();
+		Thread.sleep(150);
+		assertThat(circuitBreaker.tryAcquirePermission(), equalTo(true));
+		assertThat(circuitBreaker.tryAcquirePermission(), equalTo(true));
+		assertThat(circuitBreaker.tryAcquirePermission(), equalTo(false));
+		circuitBreaker.releasePermission();
+		assertThat(circuitBreaker.tryAcquirePermission(), equalTo(true));
+		circuitBreaker.onResult(FAST, false);
+		circuitBreaker.onResult(FAST, false);
+		assertThat(circuitBreaker.getState(), equalTo(CircuitBreaker.State.CLOSED));
+	}
+
+	@Test
+	public void testOnlyConnectivityFailuresOpenTheCircuit() {
+		RuntimeException[] failure = new RuntimeException[1];
+		CircuitBreakingMessageHandler handler = new CircuitBreakingMessageHandler(message -> {
+			throw failure[0];
+		}, circuitBreaker, new SimpleMeterRegistry());
+		handler.afterPropertiesSet();
+
+		failure[0] = new MessageHandlingException(new GenericMessage<>("value"), "key expression failed");
+		for (int i = 0; i < 10; i++) {
+			send(handler, failure[0]);
+		}
+		assertThat(circuitBreaker.getState(), equalTo(CircuitBreaker.State.CLOSED));
+
+		failure[0] = new MessageHandlingException(new GenericMessage<>("value"), "no servers",
+				new NoAvailableServersException());
+		for (int i = 0; i < 4; i++) {
+			send(handler, failure[0]);
+		}
+		assertThat(circuitBreaker.getState(), equalTo(CircuitBreaker.State.OPEN));
+		try {
+			handler.handleMessage(new GenericMessage<>("value"));
+			fail("expected the message to be rejected");
+		}
+		catch (CircuitBreakingMessageHandler.CircuitOpenException e) {
+			assertThat(ConnectivityFailures.isConnectivityFailure(e), equalTo(true));
+		}
+	}
+
+	private static void send(CircuitBreakingMessageHandler handler, RuntimeException expected) {
+		try {
+			handler.handleMessage(new GenericMessage<>("value"));
+			fail("expected " + expected);
+		}
+		catch (RuntimeException e) {
+			assertThat(e, equalTo(expected));
+		}
+	}
+
+	private void record(long duration, boolean failed) {
+		assertThat(circuitBreaker.tryAcquirePermission(), equalTo(true));
+		circuitBreaker.onResult(duration, failed);
+	}
+}
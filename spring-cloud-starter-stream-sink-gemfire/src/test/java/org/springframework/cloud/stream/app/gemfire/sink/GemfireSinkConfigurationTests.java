@@ -57,5 +57,6 @@ public class GemfireSinkConfigurationTests {
 	public void testDefaultConfiguration() {
 		assertNull("interest should be null", interest);
 		assertThat("subscriptions should not be enabled", !pool.getSubscriptionEnabled());
+		assertThat("single hop should be enabled", pool.getPRSingleHopEnabled());
 	}
 }
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2019 the original author or authors.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.gemfire.sink;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class IdempotencyCacheTests {
+
+	private final IdempotencyCache cache = new IdempotencyCache(4, 0, new SimpleMeterRegistry());
+
+	@Test
+	public void testOnlyOneConcurrentDeliveryIsRecorded() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			for (int round = 0; round < 100; round++) {
+				String id = "id" + round;
+				CountDownLatch start = new CountDownLatch(1);
+				List<Future<Boolean>> results = new ArrayList<>();
+				for (int i = 0; i < 8; i++) {
+					results.add(executor.submit(() -> {
+						start.await();
+						return this.cache.addIfAbsent(id);
+					}));
+				}
+				start.countDown();
+				int recorded = 0;
+				for (Future<Boolean> result : results) {
+					if (result.get(10, TimeUnit.SECONDS)) {
+						recorded++;
+					}
+				}
+				assertThat(recorded, equalTo(1));
+			}
+		}
+		finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testRemovedIdIsRecordedAgainAndEvictionSkipsIt() {
+		assertThat(this.cache.addIfAbsent("a"), equalTo(true));
+		assertThat(this.cache.addIfAbsent("b"), equalTo(true));
+		this.cache.remove("a");
+		assertThat(this.cache.addIfAbsent("c"), equalTo(true));
+		assertThat(this.cache.addIfAbsent("a"), equalTo(true));
+		assertThat(this.cache.addIfAbsent("a"), equalTo(false));
+		// the freed place of the first "a" is evicted first, which leaves the second "a" in place
+		assertThat(this.cache.addIfAbsent("d"), equalTo(true));
+		assertThat(this.cache.addIfAbsent("a"), equalTo(false));
+		assertThat(this.cache.addIfAbsent("b"), equalTo(false));
+		// then "b", the oldest id held
+		assertThat(this.cache.addIfAbsent("e"), equalTo(true));
+		assertThat(this.cache.addIfAbsent("b"), equalTo(true));
+		assertThat(this.cache.addIfAbsent("a"), equalTo(false));
+	}
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2019 the original author or authors.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.gemfire.sink;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.dataformat.avro.AvroFactory;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaNormalization;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.geode.cache.Cache;
+import org.apache.geode.cache.CacheFactory;
+import org.apache.geode.pdx.PdxInstance;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.msgpack.jackson.dataformat.MessagePackFactory;
+
+import org.springframework.cloud.stream.app.gemfire.JsonPdxInstanceReader;
+import org.springframework.messaging.converter.MessageConversionException;
+import org.springframework.util.MimeType;
+import org.springframework.util.MimeTypeUtils;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class PdxInstanceConverterTests {
+
+	private static final Schema SCHEMA = new Schema.Parser().parse("{\"type\":\"record\",\"name\":\"Quote\","
+			+ "\"fields\":[{\"name\":\"symbol\",\"type\":\"string\"},{\"name\":\"price\",\"type\":\"double\"},"
+			+ "{\"name\":\"tags\",\"type\":{\"type\":\"array\",\"items\":\"string\"}}]}");
+
+	private static Cache cache;
+
+	@BeforeClass
+	public static void setup() {
+		cache = new CacheFactory().set("mcast-port", "0").set("log-level", "warning").create();
+	}
+
+	@AfterClass
+	public static void tearDown() {
+		cache.close();
+	}
+
+	@Test
+	public void testCbor() throws IOException {
+		JacksonPdxInstanceConverter converter = new JacksonPdxInstanceConverter(
+				new JsonPdxInstanceReader(new CBORFactory()), new MimeType("application", "cbor"));
+		assertThat(converter.supports(MimeTypeUtils.parseMimeType("application/cbor")), equalTo(true));
+		assertThat(converter.supports(MimeTypeUtils.APPLICATION_JSON), equalTo(false));
+		byte[] payload = quote(new CBORFactory());
+		assertQuote(converter.convert(payload, 0, payload.length));
+	}
+
+	@Test
+	public void testMessagePack() throws IOException {
+		JacksonPdxInstanceConverter converter = new JacksonPdxInstanceConverter(
+				new JsonPdxInstanceReader(new MessagePackFactory()), new MimeType("application", "x-msgpack"));
+		byte[] payload = quote(new MessagePackFactory());
+		assertQuote(converter.convert(payload, 0, payload.length));
+	}
+
+	@Test
+	public void testAvroSingleObjectEncoding() throws IOException {
+		AvroPdxInstanceConverter converter = new AvroPdxInstanceConverter(new JsonPdxInstanceReader(new AvroFactory()));
+		converter.addSchema(SCHEMA);
+		assertThat(converter.supports(MimeTypeUtils.parseMimeType("application/vnd.quote.v1+avro")), equalTo(true));
+		GenericData.Record record = new GenericData.Record(SCHEMA);
+		record.put("symbol", "A");
+		record.put("price", 1.5);
+		record.put("tags", Arrays.asList("x", "y"));
+		byte[] payload = singleObject(record);
+		assertQuote(converter.convert(payload, 0, payload.length));
+	}
+
+	@Test(expected = MessageConversionException.class)
+	public void testAvroUnknownSchema() throws IOException {
+		AvroPdxInstanceConverter converter = new AvroPdxInstanceConverter(new JsonPdxInstanceReader(new AvroFactory()));
+		GenericData.Record record = new GenericData.Record(SCHEMA);
+		record.put("symbol", "A");
+		record.put("price", 1.5);
+		record.put("tags", Arrays.asList("x", "y"));
+		byte[] payload = singleObject(record);
+		converter.convert(payload, 0, payload.length);
+	}
+
+	/**
+	 * Encode a record in the single object encoding: the marker, the little-endian fingerprint of its schema and the
+	 * binary encoded record.
+	 */
+	private static byte[] singleObject(GenericData.Record record) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write(0xC3);
+		out.write(0x01);
+		long fingerprint = SchemaNormalization.parsingFingerprint64(record.getSchema());
+		for (int i = 0; i < 8; i++) {
+			out.write((int) (fingerprint >>> (8 * i)));
+		}
+		BinaryEncoder encoder = EncoderFactory.get().binaryEncoder(out, null);
+		new GenericDatumWriter<GenericData.Record>(record.getSchema()).write(record, encoder);
+		encoder.flush();
+		return out.toByteArray();
+	}
+
+	private static byte[] quote(JsonFactory factory) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (JsonGenerator generator = factory.createGenerator(out)) {
+			generator.writeStartObject();
+			generator.writeStringField("symbol", "A");
+			generator.writeNumberField("price", 1.5);
+			generator.writeArrayFieldStart("tags");
+			generator.writeString("x");
+			generator.writeString("y");
+			generator.writeEndArray();
+			generator.writeEndObject();
+		}
+		return out.toByteArray();
+	}
+
+	private static void assertQuote(PdxInstance quote) {
+		assertThat(quote.getField("symbol"), equalTo("A"));
+		assertThat(quote.getField("price"), equalTo(1.5d));
+		assertThat(quote.getField("tags"), equalTo(Arrays.asList("x", "y")));
+	}
+}
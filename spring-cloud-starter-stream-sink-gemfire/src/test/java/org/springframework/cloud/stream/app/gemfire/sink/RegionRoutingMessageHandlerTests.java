@@ -0,0 +1,143 @@
+/*
+ * Copyright 2019 the original author or authors.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.gemfire.sink;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.geode.cache.Region;
+import org.apache.geode.cache.client.ClientCache;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.MessageHandlingException;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class RegionRoutingMessageHandlerTests {
+
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+	private final List<String> written = new CopyOnWriteArrayList<>();
+
+	private volatile CountDownLatch closeStarted = new CountDownLatch(1);
+
+	private volatile CountDownLatch closeReleased = new CountDownLatch(0);
+
+	private volatile RuntimeException flushFailure;
+
+	private RegionRoutingMessageHandler handler;
+
+	@Before
+	@SuppressWarnings("unchecked")
+	public void setup() {
+		// the regions exist in the client cache, so the handler neither creates nor closes them
+		ClientCache clientCache = mock(ClientCache.class);
+		when(clientCache.getRegion(anyString())).thenAnswer(invocation -> {
+			Region<String, Object> region = mock(Region.class);
+			when(region.getName()).thenReturn(invocation.getArgument(0));
+			return region;
+		});
+		this.handler = new RegionRoutingMessageHandler(
+				new SpelExpressionParser().parseExpression("headers['region']"), clientCache, "pool",
+				RecordingWriter::new, 2, this.meterRegistry);
+		this.handler.afterPropertiesSet();
+	}
+
+	@Test(timeout = 30000)
+	public void testEvictedRegionIsClosedWithoutBlockingOtherRegions() throws Exception {
+		this.closeReleased = new CountDownLatch(1);
+		write("A");
+		write("B");
+		Thread evicting = new Thread(() -> write("C"));
+		evicting.start();
+		assertThat(this.closeStarted.await(10, TimeUnit.SECONDS), equalTo(true));
+
+		// A is being flushed and closed, which neither blocks B nor lets A be created again in the meantime
+		write("B");
+		Thread reopening = new Thread(() -> write("A"));
+		reopening.start();
+		reopening.join(200);
+		assertThat(reopening.isAlive(), equalTo(true));
+
+		this.closeReleased.countDown();
+		evicting.join(10000);
+		reopening.join(10000);
+		assertThat(this.written.subList(0, 3), equalTo(Arrays.asList("A", "B", "B")));
+		assertThat(this.written.subList(3, this.written.size()), containsInAnyOrder("C", "A"));
+		assertThat(this.handler.getRegionCount(), equalTo(2));
+	}
+
+	@Test
+	public void testFlushFailureOfEvictedRegionIsThrown() {
+		write("A");
+		write("B");
+		this.flushFailure = new IllegalStateException("flush failed");
+		try {
+			write("C");
+			fail("expected the flush failure of region A");
+		}
+		catch (MessageHandlingException e) {
+			assertThat(e.getCause(), equalTo(this.flushFailure));
+		}
+		this.flushFailure = null;
+		assertThat(this.handler.getRegionCount(), equalTo(2));
+		write("C");
+		assertThat(this.written, equalTo(Arrays.asList("A", "B", "C")));
+	}
+
+	private void write(String region) {
+		this.handler.handleMessage(MessageBuilder.withPayload(region).setHeader("region", region).build());
+	}
+
+	/**
+	 * Records the messages written and fails or blocks its flush on close as the test requires.
+	 */
+	private final class RecordingWriter implements MessageHandler, DisposableBean {
+
+		RecordingWriter(Region<String, ?> region) {
+		}
+
+		@Override
+		public void handleMessage(Message<?> message) {
+			written.add((String) message.getPayload());
+		}
+
+		@Override
+		public void destroy() throws InterruptedException {
+			closeStarted.countDown();
+			closeReleased.await();
+			if (flushFailure != null) {
+				throw flushFailure;
+			}
+		}
+	}
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2019 the original author or authors.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.gemfire.sink;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.geode.cache.Region;
+import org.apache.geode.cache.client.ClientCache;
+import org.apache.geode.cache.client.ClientCacheFactory;
+import org.apache.geode.cache.client.ClientRegionShortcut;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import org.springframework.cloud.stream.app.test.gemfire.process.GeodeServerLauncherHelper;
+import org.springframework.cloud.stream.app.test.gemfire.process.ProcessWrapper;
+import org.springframework.expression.common.LiteralExpression;
+
+/**
+ * Compares writing a batch with a plain {@link Region#putAll(Map)} against writing it in a transaction the way the
+ * sink's transactional mode does, for batches of 10, 100 and 1000 entries of 256 bytes. As in the integration tests,
+ * a cache server is launched with {@code gemfire-server.xml} and the batches are written through a client proxy
+ * region, so the figures include the extra round trips of a client transaction, which is hosted by the server and
+ * commits in a separate request.
+ *
+ * Run from the IDE, or with {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=org.springframework.cloud.stream.app.gemfire.sink.TransactionalWriteBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransactionalWriteBenchmark {
+
+	@Param({ "10", "100", "1000" })
+	private int batchSize;
+
+	private ProcessWrapper serverProcess;
+
+	private ClientCache clientCache;
+
+	private Region<Object, Object> region;
+
+	private TransactionalCacheWritingMessageHandler transactionalWriter;
+
+	private Map<Object, Object> batch;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		this.serverProcess = GeodeServerLauncherHelper.startGeode("GemFireTestServer", "gemfire-server.xml");
+		this.clientCache = new ClientCacheFactory()
+				.addPoolServer("localhost", 42424)
+				.set("log-level", "warning")
+				.create();
+		this.region = this.clientCache.createClientRegionFactory(ClientRegionShortcut.PROXY).create("Stocks");
+		this.transactionalWriter = new TransactionalCacheWritingMessageHandler(this.region,
+				new LiteralExpression("key"), this.batchSize, 1000, this.clientCache.getCacheTransactionManager(), 0,
+				new SimpleMeterRegistry());
+		this.batch = new LinkedHashMap<>();
+		for (int i = 0; i < this.batchSize; i++) {
+			this.batch.put("key" + i, new byte[256]);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		this.clientCache.close();
+		GeodeServerLauncherHelper.tearDown(this.serverProcess);
+	}
+
+	@Benchmark
+	public void putAll() {
+		this.region.putAll(this.batch);
+	}
+
+	@Benchmark
+	public void transactionalPutAll() {
+		this.transactionalWriter.writeEntries(this.batch);
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(TransactionalWriteBenchmark.class.getSimpleName()).build()).run();
+	}
+}
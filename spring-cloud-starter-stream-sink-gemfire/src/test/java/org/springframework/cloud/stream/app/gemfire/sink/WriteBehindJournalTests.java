@@ -0,0 +1,269 @@
+/*
+ * Copyright 2019 the original author or authors.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.gemfire.sink;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.geode.cache.client.NoAvailableServersException;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import org.springframework.cloud.stream.app.test.gemfire.support.ThreadUtils;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.GenericMessage;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+
+public class WriteBehindJournalTests {
+
+	private static final int SEGMENT_SIZE = 4096;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+	private WriteBehindJournal journal;
+
+	@After
+	public void close() throws IOException {
+		if (this.journal != null) {
+			this.journal.close();
+		}
+	}
+
+	@Test
+	public void testTornTailRecordIsDiscardedOnOpen() throws Exception {
+		this.journal = open(100);
+		append(0, 3);
+		this.journal.close();
+		// a record whose length reached the file but whose content did not
+		File segment = segments()[0];
+		int end = recordOffset(segment, 3);
+		try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+			file.seek(end);
+			file.writeInt(100);
+			file.writeInt(0);
+			file.write(new byte[] { 1, 2, 3 });
+		}
+
+		this.journal = open(100);
+		assertThat(this.journal.getPendingRecords(), equalTo(3L));
+		append(3, 1);
+		assertThat(payloads(this.journal.read(10, 0)), equalTo(expected(0, 4)));
+	}
+
+	@Test
+	public void testReadingResumesAtTheCheckpointAfterRestart() throws Exception {
+		this.journal = open(100);
+		append(0, 5);
+		assertThat(payloads(this.journal.read(2, 0)), equalTo(expected(0, 2)));
+		this.journal.commit();
+		// read but not committed before the restart, so read again
+		assertThat(payloads(this.journal.read(1, 0)), equalTo(expected(2, 1)));
+		this.journal.close();
+
+		this.journal = open(100);
+		assertThat(this.journal.getPendingRecords(), equalTo(3L));
+		assertThat(payloads(this.journal.read(10, 0)), equalTo(expected(2, 3)));
+	}
+
+	@Test
+	public void testSegmentsRollAndAreDeletedOnceCommitted() throws Exception {
+		this.journal = open(100);
+		append(0, 50);
+		int segments = segments().length;
+		assertThat(segments, greaterThan(2));
+
+		assertThat(payloads(readAll()), equalTo(expected(0, 50)));
+		this.journal.commit();
+		assertThat(segments().length, equalTo(1));
+		assertThat(this.journal.getPendingRecords(), equalTo(0L));
+
+		this.journal.close();
+		this.journal = open(100);
+		assertThat(this.journal.getPendingRecords(), equalTo(0L));
+		assertThat(this.journal.read(10, 0).size(), equalTo(0));
+	}
+
+	@Test
+	public void testAppendBlocksWhenTheJournalIsFull() throws Exception {
+		this.journal = open(2);
+		AtomicInteger appended = new AtomicInteger();
+		Thread appender = new Thread(() -> {
+			for (int i = 0; i < 50; i++) {
+				this.journal.append(new GenericMessage<>("message" + i));
+				appended.incrementAndGet();
+			}
+		});
+		appender.start();
+		appender.join(1000);
+		assertThat(appender.isAlive(), equalTo(true));
+		assertThat(segments().length, equalTo(2));
+		int appendedWhileFull = appended.get();
+		appender.join(200);
+		assertThat(appended.get(), equalTo(appendedWhileFull));
+
+		List<Message<?>> messages = new ArrayList<>();
+		while (appender.isAlive() || this.journal.getPendingRecords() > 0) {
+			messages.addAll(this.journal.read(100, 100));
+			this.journal.commit();
+		}
+		assertThat(payloads(messages), equalTo(expected(0, 50)));
+	}
+
+	@Test
+	public void testCorruptRecordIsSkipped() throws Exception {
+		this.journal = open(100);
+		append(0, 3);
+		File segment = segments()[0];
+		int offset = recordOffset(segment, 1) + 20;
+		try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+			file.seek(offset);
+			int value = file.read();
+			file.seek(offset);
+			file.write(value ^ 0xff);
+		}
+
+		List<Object> payloads = payloads(this.journal.read(10, 0));
+		assertThat(payloads.size(), equalTo(2));
+		assertThat(payloads.get(0), equalTo("message0"));
+		assertThat(payloads.get(1), equalTo("message2"));
+		this.journal.commit();
+		assertThat(this.journal.getPendingRecords(), equalTo(0L));
+		assertThat(this.meterRegistry.get("gemfire.sink.journal.records.skipped").counter().count(), equalTo(1.0));
+	}
+
+	@Test
+	public void testDrainerSkipsAMessageThatKeepsFailing() throws Exception {
+		this.journal = open(100);
+		append(0, 5);
+		List<Object> written = Collections.synchronizedList(new ArrayList<>());
+		AtomicInteger poisonAttempts = new AtomicInteger();
+		WriteBehindJournalDrainer drainer = new WriteBehindJournalDrainer(this.journal, message -> {
+			if ("message2".equals(message.getPayload())) {
+				poisonAttempts.incrementAndGet();
+				throw new IllegalStateException("poison");
+			}
+			written.add(message.getPayload());
+		}, () -> { }, 10, 1);
+		drainer.start();
+		try {
+			ThreadUtils.timedWait(10000, 10, () -> this.journal.getPendingRecords() > 0);
+		}
+		finally {
+			drainer.stop();
+		}
+		assertThat(this.journal.getPendingRecords(), equalTo(0L));
+		assertThat(poisonAttempts.get(), equalTo(WriteBehindJournalDrainer.MAX_ATTEMPTS + 1));
+		// the messages of the failed batches were written again when the batch was written one message at a time
+		assertThat(written.subList(written.size() - 4, written.size()),
+				equalTo(Arrays.asList("message0", "message1", "message3", "message4")));
+	}
+
+	@Test
+	public void testDrainerRetriesConnectivityFailuresUntilTheyPass() throws Exception {
+		this.journal = open(100);
+		append(0, 3);
+		List<Object> written = Collections.synchronizedList(new ArrayList<>());
+		AtomicInteger failures = new AtomicInteger(WriteBehindJournalDrainer.MAX_ATTEMPTS * 2);
+		WriteBehindJournalDrainer drainer = new WriteBehindJournalDrainer(this.journal, message -> {
+			if ("message1".equals(message.getPayload()) && failures.getAndDecrement() > 0) {
+				throw new NoAvailableServersException();
+			}
+			written.add(message.getPayload());
+		}, () -> { }, 10, 1);
+		drainer.start();
+		try {
+			ThreadUtils.timedWait(10000, 10, () -> this.journal.getPendingRecords() > 0);
+		}
+		finally {
+			drainer.stop();
+		}
+		assertThat(this.journal.getPendingRecords(), equalTo(0L));
+		assertThat(written.subList(written.size() - 3, written.size()), equalTo(expected(0, 3)));
+	}
+
+	private WriteBehindJournal open(int maxSegments) throws IOException {
+		WriteBehindJournal journal = new WriteBehindJournal(this.folder.getRoot(), SEGMENT_SIZE, maxSegments,
+				this.meterRegistry);
+		journal.open();
+		return journal;
+	}
+
+	private void append(int from, int count) {
+		for (int i = from; i < from + count; i++) {
+			this.journal.append(new GenericMessage<>("message" + i));
+		}
+	}
+
+	private List<Message<?>> readAll() throws InterruptedException {
+		List<Message<?>> messages = new ArrayList<>();
+		List<Message<?>> read;
+		while (!(read = this.journal.read(100, 0)).isEmpty()) {
+			messages.addAll(read);
+		}
+		return messages;
+	}
+
+	private File[] segments() {
+		File[] segments = this.folder.getRoot().listFiles((dir, name) -> name.endsWith(".log"));
+		Arrays.sort(segments);
+		return segments;
+	}
+
+	/**
+	 * The offset of a record in a segment, found by following the record lengths.
+	 */
+	private static int recordOffset(File segment, int index) throws IOException {
+		try (RandomAccessFile file = new RandomAccessFile(segment, "r")) {
+			int offset = 0;
+			for (int i = 0; i < index; i++) {
+				file.seek(offset);
+				offset += 8 + file.readInt();
+			}
+			return offset;
+		}
+	}
+
+	private static List<Object> payloads(List<Message<?>> messages) {
+		List<Object> payloads = new ArrayList<>();
+		for (Message<?> message : messages) {
+			payloads.add(message.getPayload());
+		}
+		return payloads;
+	}
+
+	private static List<Object> expected(int from, int count) {
+		List<Object> payloads = new ArrayList<>();
+		for (int i = from; i < from + count; i++) {
+			payloads.add("message" + i);
+		}
+		return payloads;
+	}
+}
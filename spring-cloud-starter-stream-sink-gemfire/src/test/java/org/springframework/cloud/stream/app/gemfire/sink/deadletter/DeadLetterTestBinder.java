@@ -0,0 +1,129 @@
+/*
+ * Copyright 2019 the original author or authors.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.gemfire.sink.deadletter;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.springframework.cloud.stream.binder.AbstractMessageChannelBinder;
+import org.springframework.cloud.stream.binder.ConsumerProperties;
+import org.springframework.cloud.stream.binder.ProducerProperties;
+import org.springframework.cloud.stream.provisioning.ConsumerDestination;
+import org.springframework.cloud.stream.provisioning.ProducerDestination;
+import org.springframework.cloud.stream.provisioning.ProvisioningProvider;
+import org.springframework.integration.IntegrationMessageHeaderAccessor;
+import org.springframework.integration.core.MessageProducer;
+import org.springframework.integration.endpoint.MessageProducerSupport;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHandler;
+
+/**
+ * A binder that binds the record it receives to each message as its {@code sourceData} header. Like the dead-letter
+ * handlers of the Kafka and RabbitMQ binders, its dead-letter handler republishes a failed message only if the error
+ * message carries that record, and otherwise drops it.
+ */
+public class DeadLetterTestBinder
+		extends AbstractMessageChannelBinder<ConsumerProperties, ProducerProperties, DeadLetterTestBinder.Provisioner> {
+
+	private final Map<String, Inbound> inbounds = new ConcurrentHashMap<>();
+
+	private final List<Object> deadLetters = new CopyOnWriteArrayList<>();
+
+	public DeadLetterTestBinder() {
+		super(new String[0], new Provisioner());
+	}
+
+	/**
+	 * Receive a record from a destination bound to a consumer.
+	 * @param destination the destination
+	 * @param record the record
+	 * @param payload the payload of the message of the record
+	 */
+	public void receive(String destination, Object record, Object payload) {
+		this.inbounds.get(destination).receive(record, payload);
+	}
+
+	/**
+	 * @return the records republished by the dead-letter handler
+	 */
+	public List<Object> getDeadLetters() {
+		return this.deadLetters;
+	}
+
+	@Override
+	protected MessageHandler createProducerMessageHandler(ProducerDestination destination,
+			ProducerProperties producerProperties, MessageChannel errorChannel) {
+		return message -> { };
+	}
+
+	@Override
+	protected MessageProducer createConsumerEndpoint(ConsumerDestination destination, String group,
+			ConsumerProperties properties) {
+		Inbound inbound = new Inbound();
+		// like the Kafka and RabbitMQ binders, which subscribe their dead-letter handler to the binding error channel
+		inbound.setErrorChannel(registerErrorInfrastructure(destination, group, properties).getErrorChannel());
+		this.inbounds.put(destination.getName(), inbound);
+		return inbound;
+	}
+
+	@Override
+	protected MessageHandler getErrorMessageHandler(ConsumerDestination destination, String group,
+			ConsumerProperties properties) {
+		return message -> {
+			Object record = message.getHeaders().get(IntegrationMessageHeaderAccessor.SOURCE_DATA);
+			if (record != null) {
+				this.deadLetters.add(record);
+			}
+		};
+	}
+
+	static class Inbound extends MessageProducerSupport {
+
+		void receive(Object record, Object payload) {
+			sendMessage(MessageBuilder.withPayload(payload)
+					.setHeader(IntegrationMessageHeaderAccessor.SOURCE_DATA, record)
+					.build());
+		}
+	}
+
+	static class Provisioner implements ProvisioningProvider<ConsumerProperties, ProducerProperties> {
+
+		@Override
+		public ProducerDestination provisionProducerDestination(String name, ProducerProperties properties) {
+			return new ProducerDestination() {
+
+				@Override
+				public String getName() {
+					return name;
+				}
+
+				@Override
+				public String getNameForPartition(int partition) {
+					return name;
+				}
+			};
+		}
+
+		@Override
+		public ConsumerDestination provisionConsumerDestination(String name, String group,
+				ConsumerProperties properties) {
+			return () -> name;
+		}
+	}
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2019 the original author or authors.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.gemfire.sink.deadletter;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cloud.stream.app.gemfire.sink.GemfireSinkConfiguration;
+import org.springframework.cloud.stream.binder.BinderFactory;
+import org.springframework.cloud.stream.test.binder.MessageCollectorAutoConfiguration;
+import org.springframework.cloud.stream.test.binder.TestSupportBinderAutoConfiguration;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+
+/**
+ * Binds the sink with a binder that dead-letters failed messages. No server listens on the pool's port, so every batch
+ * fails to be written.
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE,
+		properties = { "gemfire.region.regionName=Stocks",
+				"gemfire.pool.hostAddresses=localhost:42499",
+				"gemfire.pool.connectType=server",
+				"gemfire.sink.batchSize=2",
+				"gemfire.sink.batchTimeout=600000",
+				"gemfire.sink.keyExpression=payload.substring(0, payload.indexOf(':'))",
+				"spring.cloud.stream.default.binder=deadletter",
+				"spring.cloud.stream.bindings.input.destination=orders",
+				"spring.cloud.stream.bindings.input.group=sink"
+		},
+		classes = { GemfireSinkConfiguration.class, GemfireSinkDeadLetterTests.BindingConfiguration.class })
+@DirtiesContext
+public class GemfireSinkDeadLetterTests {
+
+	@Autowired
+	private BinderFactory binderFactory;
+
+	@Test
+	public void testEveryMessageOfFailedBatchIsDeadLettered() {
+		DeadLetterTestBinder binder = (DeadLetterTestBinder) this.binderFactory.getBinder("deadletter",
+				MessageChannel.class);
+		binder.receive("orders", "record1", "key1:value1");
+		// the second message fills the batch, which fails to be written before receive returns
+		binder.receive("orders", "record2", "key2:value2");
+		assertThat(binder.getDeadLetters(), contains("record1", "record2"));
+	}
+
+	/**
+	 * Binds the input with the binder instead of the test support binder.
+	 */
+	@Configuration
+	@EnableAutoConfiguration(exclude = { TestSupportBinderAutoConfiguration.class,
+			MessageCollectorAutoConfiguration.class })
+	static class BindingConfiguration {
+	}
+}
@@ -16,12 +16,20 @@
 package org.springframework.cloud.stream.app.gemfire.sink.normal;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import javax.annotation.Resource;
 
 import org.apache.geode.cache.Region;
+import org.apache.geode.cache.client.ClientCache;
+import org.apache.geode.cache.client.ClientRegionShortcut;
 import org.apache.geode.pdx.PdxInstance;
 import org.junit.AfterClass;
+import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Ignore;
 import org.junit.Test;
@@ -29,15 +37,19 @@ import org.junit.runner.RunWith;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cloud.stream.app.gemfire.CompressionEnvelope;
 import org.springframework.cloud.stream.app.gemfire.JsonObjectTransformer;
 import org.springframework.cloud.stream.app.gemfire.sink.GemfireSinkConfiguration;
 import org.springframework.cloud.stream.app.test.gemfire.process.GeodeServerLauncherHelper;
 import org.springframework.cloud.stream.app.test.gemfire.process.ProcessWrapper;
+import org.springframework.cloud.stream.app.test.gemfire.support.ThreadUtils;
 import org.springframework.cloud.stream.messaging.Sink;
+import org.springframework.integration.support.MessageBuilder;
 import org.springframework.messaging.support.GenericMessage;
 import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.context.TestPropertySource;
 import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.util.ObjectUtils;
 
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.CoreMatchers.instanceOf;
@@ -68,6 +80,8 @@ public abstract class GemfireSinkIntegrationTests {
 	@Resource(name = "clientRegion")
 	Region<String, String> region;
 
+	private static final long WRITE_TIMEOUT = 10000;
+
 	private static ProcessWrapper serverProcess;
 
 	@BeforeClass
@@ -75,6 +89,20 @@ public abstract class GemfireSinkIntegrationTests {
 		serverProcess = GeodeServerLauncherHelper.startGeode("GemFireTestServer", "gemfire-server.xml");
 	}
 
+	/**
+	 * Wait until the server holds the value for the key, for the modes that write after the message is sent.
+	 */
+	protected void awaitValue(String key, Object value) {
+		ThreadUtils.timedWait(WRITE_TIMEOUT, 50, () -> !ObjectUtils.nullSafeEquals(region.get(key), value));
+	}
+
+	/**
+	 * Wait until the server no longer holds an entry for the key.
+	 */
+	protected void awaitRemoved(String key) {
+		ThreadUtils.timedWait(WRITE_TIMEOUT, 50, () -> region.containsKeyOnServer(key));
+	}
+
 	@TestPropertySource(properties = { "gemfire.sink.json=false" })
 	public static class GemfireSinkNonJsonModeTests extends GemfireSinkIntegrationTests {
 
@@ -106,6 +134,275 @@ public abstract class GemfireSinkIntegrationTests {
 		}
 	}
 
+	@TestPropertySource(properties = { "gemfire.sink.batchSize=10", "gemfire.sink.batchTimeout=600000",
+			"gemfire.sink.keyExpression=payload.substring(0, payload.indexOf(':'))" })
+	public static class GemfireSinkBatchModeTests extends GemfireSinkIntegrationTests {
+
+		@Test
+		public void testBatchIsWrittenWhenFull() {
+			for (int i = 0; i < 9; i++) {
+				gemfireSink.input().send(new GenericMessage("batch" + i + ":value" + i));
+			}
+			for (int i = 0; i < 9; i++) {
+				assertThat(region.containsKeyOnServer("batch" + i), equalTo(false));
+			}
+			gemfireSink.input().send(new GenericMessage("batch9:value9"));
+			// the tenth entry fills the batch, which is written on the calling thread
+			for (int i = 0; i < 10; i++) {
+				assertThat(region.get("batch" + i), equalTo("batch" + i + ":value" + i));
+			}
+		}
+	}
+
+	@TestPropertySource(properties = { "gemfire.sink.batchSize=10", "gemfire.sink.batchTimeout=200",
+			"gemfire.sink.coalesce=true" })
+	public static class GemfireSinkCoalescingModeTests extends GemfireSinkIntegrationTests {
+
+		@Test
+		public void testLastWriteWins() {
+			for (int i = 0; i < 20; i++) {
+				gemfireSink.input().send(new GenericMessage("value" + i));
+			}
+			awaitValue("key", "value19");
+			assertThat(region.get("key"), equalTo("value19"));
+		}
+	}
+
+	@TestPropertySource(properties = "gemfire.sink.maxInFlight=4")
+	public static class GemfireSinkAsyncModeTests extends GemfireSinkIntegrationTests {
+
+		@Test
+		public void testWritesForSameKeyAreOrdered() {
+			for (int i = 0; i < 100; i++) {
+				gemfireSink.input().send(new GenericMessage("value" + i));
+			}
+			awaitValue("key", "value99");
+			assertThat(region.get("key"), equalTo("value99"));
+		}
+	}
+
+	@TestPropertySource(properties = { "gemfire.sink.lanes=4", "gemfire.sink.laneQueueCapacity=10",
+			"gemfire.sink.keyExpression=payload.substring(0, payload.indexOf(':'))" })
+	public static class GemfireSinkKeyStripedModeTests extends GemfireSinkIntegrationTests {
+
+		@Test
+		public void testWritesForSameKeyAreOrdered() {
+			for (int i = 0; i < 96; i++) {
+				gemfireSink.input().send(new GenericMessage("key" + (i % 8) + ":value" + i));
+			}
+			for (int k = 0; k < 8; k++) {
+				awaitValue("key" + k, "key" + k + ":value" + (88 + k));
+				assertThat(region.get("key" + k), equalTo("key" + k + ":value" + (88 + k)));
+			}
+		}
+	}
+
+	@TestPropertySource(properties = { "gemfire.sink.functionId=gemfire-sink-bulk-put", "gemfire.sink.batchSize=10",
+			"gemfire.sink.batchTimeout=200", "gemfire.sink.keyExpression=payload.substring(0, payload.indexOf(':'))" })
+	public static class GemfireSinkFunctionModeTests extends GemfireSinkIntegrationTests {
+
+		@Test
+		public void testBatchesAreWrittenByFunction() {
+			for (int i = 0; i < 25; i++) {
+				gemfireSink.input().send(new GenericMessage("key" + i + ":value" + i));
+			}
+			for (int i = 0; i < 25; i++) {
+				awaitValue("key" + i, "key" + i + ":value" + i);
+				assertThat(region.get("key" + i), equalTo("key" + i + ":value" + i));
+			}
+		}
+	}
+
+	@TestPropertySource(properties = { "gemfire.sink.json=true", "gemfire.sink.mergePatch=true" })
+	public static class GemfireSinkMergePatchModeTests extends GemfireSinkIntegrationTests {
+
+		@Before
+		public void removeDocument() {
+			// each test starts from a document of its own
+			region.remove("key");
+		}
+
+		@Test
+		public void testPatchIsMergedIntoStoredDocument() {
+			gemfireSink.input().send(new GenericMessage("{\"name\":\"foo\",\"price\":1,\"detail\":{\"a\":1,\"b\":2}}"));
+			gemfireSink.input().send(new GenericMessage("{\"price\":2,\"detail\":{\"b\":null,\"c\":3},\"tag\":\"x\"}"));
+			assertThat(transformer.toString(region.get("key")),
+					equalTo("{\"name\":\"foo\",\"price\":2,\"detail\":{\"a\":1,\"c\":3},\"tag\":\"x\"}"));
+		}
+
+		@Test
+		public void testByteArrayPatchReplacesArrays() {
+			gemfireSink.input().send(new GenericMessage("{\"name\":\"foo\",\"items\":[{\"id\":1}]}"));
+			gemfireSink.input().send(new GenericMessage(
+					"{\"items\":[{\"id\":2,\"note\":null},3]}".getBytes(StandardCharsets.UTF_8)));
+			assertThat(transformer.toString(region.get("key")),
+					equalTo("{\"name\":\"foo\",\"items\":[{\"id\":2,\"note\":null},3]}"));
+		}
+	}
+
+	@TestPropertySource(properties = "gemfire.sink.versionExpression=T(Integer).valueOf(substring(0, indexOf(':')))")
+	public static class GemfireSinkVersionGuardedModeTests extends GemfireSinkIntegrationTests {
+
+		@Test
+		public void testStaleWriteIsSkipped() {
+			gemfireSink.input().send(new GenericMessage("2:second"));
+			gemfireSink.input().send(new GenericMessage("1:first"));
+			assertThat(region.get("key"), equalTo("2:second"));
+			gemfireSink.input().send(new GenericMessage("10:third"));
+			assertThat(region.get("key"), equalTo("10:third"));
+		}
+	}
+
+	@TestPropertySource(properties = { "gemfire.sink.batchSize=10", "gemfire.sink.batchTimeout=200",
+			"gemfire.sink.deleteExpression=payload == 'DELETE'" })
+	public static class GemfireSinkDeleteModeTests extends GemfireSinkIntegrationTests {
+
+		@Test
+		public void testTombstoneRemovesEntry() {
+			gemfireSink.input().send(new GenericMessage("first"));
+			awaitValue("key", "first");
+			assertThat(region.get("key"), equalTo("first"));
+			gemfireSink.input().send(new GenericMessage("DELETE"));
+			awaitRemoved("key");
+			assertThat(region.containsKeyOnServer("key"), equalTo(false));
+			gemfireSink.input().send(new GenericMessage("second"));
+			awaitValue("key", "second");
+			assertThat(region.get("key"), equalTo("second"));
+		}
+	}
+
+	@TestPropertySource(properties = { "gemfire.sink.journalDirectory=target/sink-journal",
+			"gemfire.sink.journalSegmentSize=4096", "gemfire.sink.journalMaxSize=16384", "gemfire.sink.batchSize=10",
+			"gemfire.sink.batchTimeout=200", "gemfire.sink.keyExpression=payload.substring(0, payload.indexOf(':'))" })
+	public static class GemfireSinkJournalModeTests extends GemfireSinkIntegrationTests {
+
+		@Test
+		public void testJournalIsDrainedToRegion() {
+			for (int i = 0; i < 50; i++) {
+				gemfireSink.input().send(new GenericMessage("key" + i + ":value" + i));
+			}
+			for (int i = 0; i < 50; i++) {
+				awaitValue("key" + i, "key" + i + ":value" + i);
+				assertThat(region.get("key" + i), equalTo("key" + i + ":value" + i));
+			}
+		}
+	}
+
+	@TestPropertySource(properties = "gemfire.sink.idempotencyKeyExpression=headers['eventId']")
+	public static class GemfireSinkIdempotentModeTests extends GemfireSinkIntegrationTests {
+
+		@Test
+		public void testRedeliveredMessageIsDropped() {
+			gemfireSink.input().send(MessageBuilder.withPayload("first").setHeader("eventId", "e1").build());
+			gemfireSink.input().send(MessageBuilder.withPayload("second").setHeader("eventId", "e2").build());
+			gemfireSink.input().send(MessageBuilder.withPayload("first").setHeader("eventId", "e1").build());
+			assertThat(region.get("key"), equalTo("second"));
+			gemfireSink.input().send(new GenericMessage("third"));
+			assertThat(region.get("key"), equalTo("third"));
+		}
+	}
+
+	@TestPropertySource(properties = "gemfire.sink.raw=true")
+	public static class GemfireSinkRawModeTests extends GemfireSinkIntegrationTests {
+
+		@Test
+		public void testBytesAreStoredAsIs() {
+			byte[] payload = { 0, 1, 2, (byte) 0xFF };
+			gemfireSink.input().send(new GenericMessage<>(payload));
+			assertThat((Object) region.get("key"), equalTo(payload));
+			gemfireSink.input().send(new GenericMessage<>(ByteBuffer.wrap(new byte[] { 9, 9, 3, 4 }, 2, 2)));
+			assertThat((Object) region.get("key"), equalTo(new byte[] { 3, 4 }));
+		}
+	}
+
+	@TestPropertySource(properties = { "gemfire.sink.regionExpression=headers['region'] ?: 'Stocks'",
+			"gemfire.sink.regionCacheSize=1" })
+	public static class GemfireSinkRegionRoutingModeTests extends GemfireSinkIntegrationTests {
+
+		@Test
+		public void testMessagesAreWrittenToTheirRegion() {
+			gemfireSink.input().send(MessageBuilder.withPayload("bond").setHeader("region", "Bonds").build());
+			gemfireSink.input().send(MessageBuilder.withPayload("option").setHeader("region", "Options").build());
+			gemfireSink.input().send(new GenericMessage("stock"));
+			assertThat(region.get("key"), equalTo("stock"));
+			ClientCache clientCache = (ClientCache) region.getRegionService();
+			for (String regionName : new String[] { "Bonds", "Options" }) {
+				// the sink closed its own region on eviction
+				assertThat(clientCache.getRegion(regionName), equalTo(null));
+				Region<String, String> routed = clientCache.<String, String>createClientRegionFactory(
+						ClientRegionShortcut.PROXY).create(regionName);
+				assertThat(routed.get("key"), equalTo(regionName.equals("Bonds") ? "bond" : "option"));
+			}
+		}
+	}
+
+	@TestPropertySource(properties = { "gemfire.region.regionName=Sessions", "gemfire.sink.json=true",
+			"gemfire.sink.ttlExpression=headers['ttl']" })
+	public static class GemfireSinkTtlModeTests extends GemfireSinkIntegrationTests {
+
+		@Test
+		public void testEntryExpiresAfterItsTtl() {
+			long now = System.currentTimeMillis();
+			gemfireSink.input().send(MessageBuilder.withPayload("{\"user\":\"a\"}".getBytes(StandardCharsets.UTF_8))
+					.setHeader("ttl", "1").build());
+			Object expiresAt = ((PdxInstance) (Object) region.get("key")).getField("expiresAt");
+			assertThat(expiresAt, instanceOf(Long.class));
+			assertThat((Long) expiresAt >= now + 1000, equalTo(true));
+			awaitRemoved("key");
+			assertThat(region.containsKeyOnServer("key"), equalTo(false));
+		}
+	}
+
+	@TestPropertySource(properties = "gemfire.sink.compressionThreshold=100")
+	public static class GemfireSinkCompressionModeTests extends GemfireSinkIntegrationTests {
+
+		@Test
+		public void testLargeValueIsCompressed() {
+			String large = String.join("", Collections.nCopies(100, "value"));
+			gemfireSink.input().send(new GenericMessage<>(large));
+			Object stored = (Object) region.get("key");
+			assertThat(CompressionEnvelope.isEnvelope(stored), equalTo(true));
+			assertThat(CompressionEnvelope.getContent((byte[]) stored), equalTo(CompressionEnvelope.Content.STRING));
+			assertThat(new String(CompressionEnvelope.unwrap((byte[]) stored), StandardCharsets.UTF_8), equalTo(large));
+			gemfireSink.input().send(new GenericMessage<>("small"));
+			assertThat(region.get("key"), equalTo("small"));
+		}
+	}
+
+	@TestPropertySource(properties = "gemfire.sink.transactional=true")
+	public static class GemfireSinkTransactionalModeTests extends GemfireSinkIntegrationTests {
+
+		@Test
+		public void testMapPayloadIsCommittedInOneTransaction() {
+			Map<String, String> entries = new LinkedHashMap<>();
+			entries.put("first", "one");
+			entries.put("second", "two");
+			gemfireSink.input().send(new GenericMessage<>(entries));
+			assertThat(region.get("first"), equalTo("one"));
+			assertThat(region.get("second"), equalTo("two"));
+			gemfireSink.input().send(new GenericMessage<>("value"));
+			assertThat(region.get("key"), equalTo("value"));
+		}
+	}
+
+	@TestPropertySource(properties = { "gemfire.sink.json=true", "gemfire.sink.recordKeyExpression=getField('id')",
+			"gemfire.sink.recordChunkSize=2" })
+	public static class GemfireSinkRecordFanOutModeTests extends GemfireSinkIntegrationTests {
+
+		@Test
+		public void testJsonArrayAndNdjsonRecordsAreWrittenByKey() {
+			gemfireSink.input().send(new GenericMessage<>(
+					"[{\"id\":\"r1\",\"n\":1},{\"id\":\"r2\",\"n\":2},{\"id\":\"r3\",\"n\":3}]"
+							.getBytes(StandardCharsets.UTF_8)));
+			gemfireSink.input().send(new GenericMessage<>(
+					"{\"id\":\"r4\",\"n\":4}\n{\"id\":\"r5\",\"n\":5}\n".getBytes(StandardCharsets.UTF_8)));
+			for (int i = 1; i <= 5; i++) {
+				PdxInstance record = (PdxInstance) (Object) region.get("r" + i);
+				assertThat(record.getField("n"), equalTo((byte) i));
+			}
+		}
+	}
+
 	@AfterClass
 	public static void tearDown() {
 		GeodeServerLauncherHelper.tearDown(serverProcess);
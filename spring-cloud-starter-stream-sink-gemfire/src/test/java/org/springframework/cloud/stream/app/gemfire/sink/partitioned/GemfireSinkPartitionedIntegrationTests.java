@@ -0,0 +1,115 @@
+/*
+ * Copyright 2019 the original author or authors.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.gemfire.sink.partitioned;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Resource;
+
+import org.apache.geode.cache.Region;
+import org.apache.geode.cache.client.ClientCache;
+import org.apache.geode.cache.client.ClientRegionShortcut;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cloud.stream.app.gemfire.sink.GemfireSinkConfiguration;
+import org.springframework.cloud.stream.app.test.gemfire.process.GeodeServerLauncherHelper;
+import org.springframework.cloud.stream.app.test.gemfire.process.ProcessWrapper;
+import org.springframework.cloud.stream.messaging.Sink;
+import org.springframework.messaging.support.GenericMessage;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Runs the sink against a partitioned region hosted by two servers.
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE,
+		properties = { "gemfire.region.regionName=Stocks",
+				"gemfire.pool.hostAddresses=localhost:42437,localhost:42438",
+				"gemfire.pool.connectType=server",
+				"gemfire.sink.functionId=" + RecordingBulkPutFunction.ID,
+				"gemfire.sink.batchSize=20",
+				"gemfire.sink.batchTimeout=600000",
+				"gemfire.sink.keyExpression=payload.substring(0, payload.indexOf(':'))",
+				"spring.cloud.stream.default.binder=test"
+		},
+		classes = { GemfireSinkConfiguration.class })
+@DirtiesContext
+public class GemfireSinkPartitionedIntegrationTests {
+
+	private static final String LOCATORS = "-Dgemfire.locators=localhost[42436]";
+
+	private static ProcessWrapper firstServer;
+
+	private static ProcessWrapper secondServer;
+
+	@Autowired
+	private Sink gemfireSink;
+
+	@Autowired
+	private ClientCache clientCache;
+
+	@Resource(name = "clientRegion")
+	private Region<String, String> region;
+
+	@BeforeClass
+	public static void setup() throws IOException {
+		firstServer = GeodeServerLauncherHelper.startGeode("PartitionedServer1", "partitioned-gemfire-server.xml",
+				"-Dgemfire.start-locator=localhost[42436]", LOCATORS, "-Dcache.server.port=42437");
+		secondServer = GeodeServerLauncherHelper.startGeode("PartitionedServer2", "partitioned-gemfire-server.xml",
+				LOCATORS, "-Dcache.server.port=42438");
+	}
+
+	@Test
+	public void testEachMemberIsSentOnlyItsOwnEntries() {
+		for (int i = 0; i < 20; i++) {
+			gemfireSink.input().send(new GenericMessage<>("key" + i + ":value" + i));
+		}
+		// the 20th message fills the batch, which is written before send returns
+		for (int i = 0; i < 20; i++) {
+			assertThat(region.get("key" + i), equalTo("key" + i + ":value" + i));
+		}
+		Region<String, Boolean> received = this.clientCache.<String, Boolean>createClientRegionFactory(
+				ClientRegionShortcut.PROXY).create("Received");
+		Map<String, Boolean> receipts = received.getAll(received.keySetOnServer());
+		Set<String> members = new HashSet<>();
+		for (Map.Entry<String, Boolean> receipt : receipts.entrySet()) {
+			assertThat(receipt.getKey() + " was sent to a member that does not host it", receipt.getValue(),
+					equalTo(true));
+			members.add(receipt.getKey().substring(0, receipt.getKey().indexOf('/')));
+		}
+		// every key was sent to one member only, and both members were sent keys
+		assertThat(receipts.size(), equalTo(20));
+		assertThat(members.size(), equalTo(2));
+	}
+
+	@AfterClass
+	public static void tearDown() {
+		GeodeServerLauncherHelper.tearDown(secondServer);
+		GeodeServerLauncherHelper.tearDown(firstServer);
+	}
+}
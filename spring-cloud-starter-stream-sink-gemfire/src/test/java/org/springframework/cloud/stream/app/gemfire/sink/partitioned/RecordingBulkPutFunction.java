@@ -0,0 +1,52 @@
+/*
+ * Copyright 2019 the original author or authors.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.gemfire.sink.partitioned;
+
+import java.util.Map;
+
+import org.apache.geode.cache.Region;
+import org.apache.geode.cache.execute.FunctionContext;
+import org.apache.geode.cache.execute.RegionFunctionContext;
+import org.apache.geode.cache.partition.PartitionRegionHelper;
+import org.apache.geode.distributed.DistributedMember;
+
+import org.springframework.cloud.stream.app.gemfire.server.function.BulkPutFunction;
+
+/**
+ * A {@link BulkPutFunction} that records, in the {@code Received} region, each key of the arguments it is sent under
+ * {@code <member>/<key>}, with whether the member hosts the key's primary bucket.
+ */
+public class RecordingBulkPutFunction extends BulkPutFunction {
+
+	public static final String ID = "recording-bulk-put";
+
+	@Override
+	public void execute(FunctionContext<Map<Object, Object>> context) {
+		Region<Object, Object> region = ((RegionFunctionContext) context).getDataSet();
+		Region<String, Boolean> received = context.getCache().getRegion("Received");
+		DistributedMember member = context.getCache().getDistributedSystem().getDistributedMember();
+		for (Object key : context.getArguments().keySet()) {
+			received.put(member.getName() + "/" + key,
+					member.equals(PartitionRegionHelper.getPrimaryMemberForKey(region, key)));
+		}
+		super.execute(context);
+	}
+
+	@Override
+	public String getId() {
+		return ID;
+	}
+}
@@ -43,6 +43,17 @@ public class GemfireCqSourceProperties {
 	 */
 	private String query;
 
+	/**
+	 * Emit PdxInstance payloads as UTF-8 encoded JSON bytes with content type 'application/json' instead of a String.
+	 */
+	private boolean jsonBytes;
+
+	/**
+	 * Emit byte[] values unchanged with content type 'application/octet-stream', for regions written by the sink in
+	 * raw mode.
+	 */
+	private boolean raw;
+
 	@NotBlank(message = "A valid query string is required")
 	public String getQuery() {
 		return query;
@@ -59,4 +70,20 @@ public class GemfireCqSourceProperties {
 	public void setEventExpression(Expression eventExpression) {
 		this.eventExpression = eventExpression;
 	}
+
+	public boolean isJsonBytes() {
+		return jsonBytes;
+	}
+
+	public void setJsonBytes(boolean jsonBytes) {
+		this.jsonBytes = jsonBytes;
+	}
+
+	public boolean isRaw() {
+		return raw;
+	}
+
+	public void setRaw(boolean raw) {
+		this.raw = raw;
+	}
 }
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2019 the original author or authors.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.gemfire.cq.source;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.apache.geode.pdx.PdxInstance;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.cloud.stream.app.gemfire.CompressionEnvelope;
+import org.springframework.cloud.stream.messaging.Source;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.gemfire.listener.ContinuousQueryListenerContainer;
+import org.springframework.integration.channel.AbstractMessageChannel;
+import org.springframework.integration.channel.QueueChannel;
+import org.springframework.integration.channel.interceptor.WireTap;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.util.MimeTypeUtils;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringBootTest(classes = { GemfireCqSourceJsonBytesTests.TestConfig.class }, properties = {
+		"gemfire.cq.query= Select * from /Stocks",
+		"gemfire.cq.jsonBytes=true" })
+public class GemfireCqSourceJsonBytesTests {
+
+	@Autowired
+	@Qualifier("routerChannel")
+	private MessageChannel routerChannel;
+
+	@Autowired
+	@Qualifier(Source.OUTPUT)
+	private AbstractMessageChannel output;
+
+	private final QueueChannel emitted = new QueueChannel();
+
+	private final WireTap tap = new WireTap(this.emitted);
+
+	@Before
+	public void tapOutput() {
+		// ahead of the binding's interceptors, which hand JSON bytes to the test binder as a String
+		this.output.addInterceptor(0, this.tap);
+	}
+
+	@After
+	public void removeTap() {
+		this.output.removeInterceptor(this.tap);
+	}
+
+	@Test
+	public void testPdxInstanceIsEmittedAsJsonBytes() {
+		PdxInstance pdxInstance = mock(PdxInstance.class);
+		when(pdxInstance.getFieldNames()).thenReturn(Arrays.asList("symbol", "price"));
+		when(pdxInstance.getField("symbol")).thenReturn("Zürich");
+		when(pdxInstance.getField("price")).thenReturn(1.5d);
+		this.routerChannel.send(MessageBuilder.withPayload(pdxInstance).build());
+
+		assertJsonBytes(received(), "{\"symbol\":\"Zürich\",\"price\":1.5}");
+	}
+
+	@Test
+	public void testCompressedJsonIsEmittedAsJsonBytes() {
+		String json = "{\"symbols\":[" + String.join(",", Collections.nCopies(100, "\"A\"")) + "]}";
+		byte[] value = json.getBytes(StandardCharsets.UTF_8);
+		byte[] envelope = CompressionEnvelope.wrap(CompressionEnvelope.Content.JSON, value, 0, value.length);
+		this.routerChannel.send(MessageBuilder.withPayload(envelope).build());
+
+		assertJsonBytes(received(), json);
+	}
+
+	private Message<?> received() {
+		Message<?> message = this.emitted.receive(0);
+		assertThat("no message was emitted", message != null);
+		return message;
+	}
+
+	private static void assertJsonBytes(Message<?> message, String json) {
+		assertThat(message.getPayload() instanceof byte[], equalTo(true));
+		assertThat(new String((byte[]) message.getPayload(), StandardCharsets.UTF_8), equalTo(json));
+		assertThat(message.getHeaders().get(MessageHeaders.CONTENT_TYPE).toString(),
+				equalTo(MimeTypeUtils.APPLICATION_JSON_VALUE));
+	}
+
+	@SpringBootApplication
+	@Import(GemfireCqSourceConfiguration.class)
+	static class TestConfig {
+
+		@MockBean
+		ContinuousQueryListenerContainer listenerContainer;
+	}
+}
@@ -25,6 +25,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.cloud.stream.annotation.EnableBinding;
+import org.springframework.cloud.stream.app.gemfire.CompressionEnvelope;
 import org.springframework.cloud.stream.app.gemfire.JsonObjectTransformer;
 import org.springframework.cloud.stream.app.gemfire.config.GemfireClientRegionConfiguration;
 import org.springframework.cloud.stream.app.gemfire.config.GemfirePoolConfiguration;
@@ -37,7 +38,10 @@ import org.springframework.integration.dsl.IntegrationFlow;
 import org.springframework.integration.dsl.IntegrationFlows;
 import org.springframework.integration.gemfire.inbound.CacheListeningMessageProducer;
 import org.springframework.integration.router.PayloadTypeRouter;
+import org.springframework.messaging.Message;
 import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.util.MimeTypeUtils;
 
 /**
  * The Gemfire Source provides a {@link CacheListeningMessageProducer} which produces a
@@ -56,7 +60,9 @@ import org.springframework.messaging.MessageChannel;
  * the original object, set 'cacheEntryExpression' to '#root' or "#this'.
  *
  * This converts payloads of type {@link PdxInstance}, which Gemfire uses to store
- * JSON content (the type of newValue for instance), to a JSON String.
+ * JSON content (the type of newValue for instance), to a JSON String, or, if 'jsonBytes' is set, directly to
+ * UTF-8 encoded JSON bytes with the 'application/json' content type. If 'raw' is set, byte[] payloads are emitted
+ * unchanged with the 'application/octet-stream' content type. Values compressed by the sink are decompressed first.
  *
  *
  * @author David Turanski
@@ -90,11 +96,23 @@ public class GemfireSourceConfiguration {
 		return new DirectChannel();
 	}
 
+	@Bean
+	public MessageChannel rawChannel() {
+		return new DirectChannel();
+	}
+
+	@Bean
+	public MessageChannel decompressChannel() {
+		return new DirectChannel();
+	}
+
 	@Bean
 	PayloadTypeRouter payloadTypeRouter() {
 		PayloadTypeRouter router = new PayloadTypeRouter();
 		router.setDefaultOutputChannel(output);
 		router.setChannelMapping(PdxInstance.class.getName(), "convertToStringChannel");
+		// the router looks up arrays by their component type followed by []
+		router.setChannelMapping("byte[]", "decompressChannel");
 
 		return router;
 	}
@@ -113,12 +131,46 @@ public class GemfireSourceConfiguration {
 
 	@Bean
 	IntegrationFlow convertToString() {
+		if (config.isJsonBytes()) {
+			return IntegrationFlows.from(convertToStringChannel())
+					.transform(transformer(), "toBytes")
+					.enrichHeaders(headers -> headers.header(MessageHeaders.CONTENT_TYPE,
+							MimeTypeUtils.APPLICATION_JSON_VALUE, true))
+					.channel(output)
+					.get();
+		}
 		return IntegrationFlows.from(convertToStringChannel())
 				.transform(transformer(), "toString")
 				.channel(output)
 				.get();
 	}
 
+	@Bean
+	IntegrationFlow raw() {
+		return IntegrationFlows.from(rawChannel())
+				.enrichHeaders(headers -> headers.header(MessageHeaders.CONTENT_TYPE,
+						MimeTypeUtils.APPLICATION_OCTET_STREAM_VALUE, true))
+				.channel(output)
+				.get();
+	}
+
+	@Bean
+	IntegrationFlow decompress() {
+		return IntegrationFlows.from(decompressChannel())
+				.transform(Message.class, message -> CompressionEnvelope.decompress(message, config.isJsonBytes()))
+				.route(Message.class, this::decompressedChannel)
+				.get();
+	}
+
+	/**
+	 * Route byte[] values, including those decompressed from byte content, to the raw flow in raw mode. Decompressed
+	 * JSON bytes carry their content type and, like all other values, go straight to the output.
+	 */
+	private String decompressedChannel(Message<?> message) {
+		return config.isRaw() && message.getPayload() instanceof byte[]
+				&& !message.getHeaders().containsKey(MessageHeaders.CONTENT_TYPE) ? "rawChannel" : Source.OUTPUT;
+	}
+
 	@Bean
 	public CacheListeningMessageProducer cacheListeningMessageProducer() {
 		CacheListeningMessageProducer cacheListeningMessageProducer = new
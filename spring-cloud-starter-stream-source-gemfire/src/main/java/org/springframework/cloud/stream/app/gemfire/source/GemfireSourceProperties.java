@@ -35,6 +35,17 @@ public class GemfireSourceProperties {
 	private Expression cacheEventExpression = new SpelExpressionParser().parseExpression
 			(DEFAULT_EXPRESSION);
 
+	/**
+	 * Emit PdxInstance payloads as UTF-8 encoded JSON bytes with content type 'application/json' instead of a String.
+	 */
+	private boolean jsonBytes;
+
+	/**
+	 * Emit byte[] values unchanged with content type 'application/octet-stream', for regions written by the sink in
+	 * raw mode.
+	 */
+	private boolean raw;
+
 	public Expression getCacheEventExpression() {
 		return cacheEventExpression;
 	}
@@ -42,4 +53,20 @@ public class GemfireSourceProperties {
 	public void setCacheEventExpression(Expression cacheEventExpression) {
 		this.cacheEventExpression = cacheEventExpression;
 	}
+
+	public boolean isJsonBytes() {
+		return jsonBytes;
+	}
+
+	public void setJsonBytes(boolean jsonBytes) {
+		this.jsonBytes = jsonBytes;
+	}
+
+	public boolean isRaw() {
+		return raw;
+	}
+
+	public void setRaw(boolean raw) {
+		this.raw = raw;
+	}
 }